@@ -0,0 +1,346 @@
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.RecordComponentVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.TypePath;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Compile-visible shape ("ABI") of a class, as a digest: two classes digest alike iff javac (or
+ * kotlinc, which also reads nullability annotations) could not tell them apart when compiling
+ * against them.
+ *
+ * <p>Covered: the class's API access flags, name, generic signature, superclass and interfaces,
+ * member-class records, and every non-private, non-synthetic field (with its constant value, which
+ * javac inlines) and method (with its throws clause) — together the {@linkplain Collector#signature
+ * signature} — plus deprecation, annotations and type annotations (visible and invisible, with their
+ * values) on the class and those members and their parameters, annotation element defaults,
+ * permitted subclasses and record components. Ignored: method bodies, private and synthetic
+ * members, debug info and member order.
+ *
+ * <p>{@link BuildJar} writes every class's digest next to its output as {@code <out>.abi}, so a
+ * consumer can tell whether a rebuilt jar compiles differently before replacing the old one: text,
+ * {@link #FORMAT}, the build options, {@code jar <sha256>} (over every {@code name digest} pair in
+ * name order), then {@code c <name> <sha256>} per class in name order. The first three lines are
+ * the jar's fingerprint; {@code hiddenjar --install} leaves an installed jar alone when they match.
+ */
+final class Abi {
+
+    static final String FORMAT = "buildjar-abi-v2";
+
+    private static final int CLASS_FLAGS = Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_INTERFACE
+            | Opcodes.ACC_ABSTRACT | Opcodes.ACC_ANNOTATION | Opcodes.ACC_ENUM;
+    private static final int MEMBER_FLAGS = Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED | Opcodes.ACC_PRIVATE
+            | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_ABSTRACT | Opcodes.ACC_VARARGS | Opcodes.ACC_ENUM;
+    /** ASM's pseudo-flags for the Deprecated and Record attributes. */
+    private static final int ATTRIBUTE_FLAGS = Opcodes.ACC_DEPRECATED | Opcodes.ACC_RECORD;
+
+    /**
+     * Records the ABI of the class it visits, passing every event on to the next visitor (if any), so
+     * the digest can ride along a pass that reads the class anyway.
+     */
+    static final class Collector extends ClassVisitor {
+        private String head;
+        /** The signature lines, and the lines only the full ABI covers. */
+        private final List<String> lines = new ArrayList<>(), extra = new ArrayList<>();
+
+        Collector(ClassVisitor next) {
+            super(Opcodes.ASM9, next);
+        }
+
+        /** Passes the visit on to {@code next} from now on — for a pass that builds its own chain. */
+        Collector into(ClassVisitor next) {
+            cv = next;
+            return this;
+        }
+
+        /** SHA-256 of the class's ABI; call after the visit. */
+        byte[] digest() {
+            List<String> all = new ArrayList<>(lines);
+            all.addAll(extra);
+            return digest(all);
+        }
+
+        /**
+         * SHA-256 of the class's signature: its ABI without deprecation, annotations, annotation
+         * defaults and the sealed/record attributes — which differ between an SDK stub and a dex2jar
+         * stub of the same class (nullability annotations, the Deprecated attribute) far more often
+         * than its signature does.
+         */
+        byte[] signature() {
+            return digest(new ArrayList<>(lines));
+        }
+
+        private byte[] digest(List<String> all) {
+            Collections.sort(all);
+            MessageDigest md = sha256();
+            md.update(head.getBytes(StandardCharsets.UTF_8));
+            for (String l : all) md.update(('\n' + l).getBytes(StandardCharsets.UTF_8));
+            return md.digest();
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName,
+                          String[] interfaces) {
+            head = "C " + (access & CLASS_FLAGS) + ' ' + name + ' ' + signature + ' ' + superName
+                    + ' ' + String.join(",", interfaces == null ? new String[0] : interfaces);
+            flags("C", access);
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return annotation("C", desc, super.visitAnnotation(desc, visible));
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String desc, boolean visible) {
+            return annotation("C " + typeRef + ' ' + typePath, desc,
+                    super.visitTypeAnnotation(typeRef, typePath, desc, visible));
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass) {
+            extra.add("S " + permittedSubclass);
+            super.visitPermittedSubclass(permittedSubclass);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            if (outerName != null && visible(access)) {   // else local/anonymous, or private
+                lines.add("I " + (access & MEMBER_FLAGS) + ' ' + name + ' ' + outerName + ' ' + innerName);
+            }
+            super.visitInnerClass(name, outerName, innerName, access);
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String desc, String signature) {
+            String owner = "R " + name + ' ' + desc;
+            extra.add(owner + ' ' + signature);
+            return new RecordComponentVisitor(api, super.visitRecordComponent(name, desc, signature)) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String d, boolean visible) {
+                    return annotation(owner, d, super.visitAnnotation(d, visible));
+                }
+
+                @Override
+                public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String d, boolean visible) {
+                    return annotation(owner + ' ' + typeRef + ' ' + typePath, d,
+                            super.visitTypeAnnotation(typeRef, typePath, d, visible));
+                }
+            };
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+            FieldVisitor next = super.visitField(access, name, desc, signature, value);
+            if (!visible(access)) return next;
+            lines.add("F " + (access & MEMBER_FLAGS) + ' ' + name + ' ' + desc + ' ' + signature + ' ' + value);
+            String owner = "F " + name + ' ' + desc;
+            flags(owner, access);
+            return new FieldVisitor(api, next) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String d, boolean visible) {
+                    return annotation(owner, d, super.visitAnnotation(d, visible));
+                }
+
+                @Override
+                public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String d, boolean visible) {
+                    return annotation(owner + ' ' + typeRef + ' ' + typePath, d,
+                            super.visitTypeAnnotation(typeRef, typePath, d, visible));
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor next = super.visitMethod(access, name, desc, signature, exceptions);
+            if (!visible(access)) return next;
+            lines.add("M " + (access & MEMBER_FLAGS) + ' ' + name + ' ' + desc + ' ' + signature + ' '
+                    + String.join(",", exceptions == null ? new String[0] : exceptions));
+            String owner = "M " + name + ' ' + desc;
+            flags(owner, access);
+            return new MethodVisitor(api, next) {
+                @Override
+                public AnnotationVisitor visitAnnotationDefault() {
+                    return new Values(super.visitAnnotationDefault(), true, v -> extra.add("D " + owner + ' ' + v));
+                }
+
+                @Override
+                public AnnotationVisitor visitAnnotation(String d, boolean visible) {
+                    return annotation(owner, d, super.visitAnnotation(d, visible));
+                }
+
+                @Override
+                public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String d, boolean visible) {
+                    return annotation(owner + ' ' + typeRef + ' ' + typePath, d,
+                            super.visitTypeAnnotation(typeRef, typePath, d, visible));
+                }
+
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String d, boolean visible) {
+                    return annotation(owner + " #" + parameter, d, super.visitParameterAnnotation(parameter, d, visible));
+                }
+            };
+        }
+
+        private void flags(String owner, int access) {
+            if ((access & ATTRIBUTE_FLAGS) != 0) extra.add("A " + owner + ' ' + (access & ATTRIBUTE_FLAGS));
+        }
+
+        /** Records annotation {@code desc} on {@code owner} with its values. Retention is left out:
+         *  javac reads class-file and runtime annotations alike. */
+        private AnnotationVisitor annotation(String owner, String desc, AnnotationVisitor next) {
+            return new Values(next, false, v -> extra.add("@ " + owner + ' ' + desc + v));
+        }
+    }
+
+    /**
+     * Renders an annotation's element values, or an array or default value, as text for {@code done}
+     * at {@link #visitEnd}: elements sorted by name (their order in the class file carries no
+     * meaning), array elements in order, each value tagged with its type.
+     */
+    private static final class Values extends AnnotationVisitor {
+        private final boolean array;
+        private final Consumer<String> done;
+        private final List<String> values = new ArrayList<>();
+
+        Values(AnnotationVisitor next, boolean array, Consumer<String> done) {
+            super(Opcodes.ASM9, next);
+            this.array = array;
+            this.done = done;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            add(name, text(value));
+            super.visit(name, value);
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value) {
+            add(name, desc + '.' + value);
+            super.visitEnum(name, desc, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            return new Values(super.visitAnnotation(name, desc), false, v -> add(name, '@' + desc + v));
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            return new Values(super.visitArray(name), true, v -> add(name, v));
+        }
+
+        @Override
+        public void visitEnd() {
+            if (!array) Collections.sort(values);
+            done.accept((array ? "[" : "(") + String.join(",", values) + (array ? "]" : ")"));
+            super.visitEnd();
+        }
+
+        private void add(String name, String value) {
+            values.add(name == null ? value : name + '=' + value);
+        }
+
+        private static String text(Object value) {
+            if (value instanceof Type) return ((Type) value).getDescriptor();
+            if (value instanceof String) return "String:" + ((String) value).length() + ':' + value;
+            if (value.getClass().isArray()) {   // primitive array constant
+                List<String> items = new ArrayList<>();
+                for (int i = 0; i < Array.getLength(value); i++) items.add(text(Array.get(value, i)));
+                return "[" + String.join(",", items) + "]";
+            }
+            return value.getClass().getSimpleName() + ':' + value;
+        }
+    }
+
+    /** The {@link Collector} of the class in {@code bytes[0, length)}. */
+    static Collector collect(byte[] bytes, int length) {
+        Collector c = new Collector(null);
+        new ClassReader(bytes, 0, length).accept(c, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return c;
+    }
+
+    /** Hex SHA-256 of {@code bytes[0, length)}: the digest of a class ASM cannot parse, so any change
+     *  to it still counts as an ABI change. */
+    static String rawHex(byte[] bytes, int length) {
+        MessageDigest md = sha256();
+        md.update(bytes, 0, length);
+        return hex(md.digest());
+    }
+
+    static String hex(byte[] digest) {
+        StringBuilder hex = new StringBuilder(2 * digest.length);
+        for (byte b : digest) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+
+    /** The per-class digests ({@code .class} entry name to hex) in the {@code .abi} file at
+     *  {@code path}; empty when it is missing, unreadable, or was written with other options. */
+    static Map<String, String> read(Path path, String options) {
+        Map<String, String> classes = new HashMap<>();
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!FORMAT.equals(r.readLine()) || !options.equals(r.readLine())) return classes;
+            for (String line; (line = r.readLine()) != null; ) {
+                String[] f = line.split("\t", -1);
+                if (f[0].equals("c") && f.length == 3) classes.put(f[1], f[2]);
+            }
+        } catch (NoSuchFileException e) {
+            // first build
+        } catch (IOException | RuntimeException e) {
+            classes.clear();
+        }
+        return classes;
+    }
+
+    /** Writes the {@code .abi} file for {@code classes} (entry name to hex) and returns the jar digest. */
+    static String write(Path path, String options, Map<String, String> classes) throws IOException {
+        TreeMap<String, String> sorted = new TreeMap<>(classes);
+        MessageDigest md = sha256();
+        for (Map.Entry<String, String> c : sorted.entrySet()) {
+            md.update((c.getKey() + '\t' + c.getValue() + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        String jar = hex(md.digest());
+        try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            w.write(FORMAT); w.write('\n');
+            w.write(options); w.write('\n');
+            w.write("jar\t" + jar + '\n');
+            for (Map.Entry<String, String> c : sorted.entrySet()) w.write("c\t" + c.getKey() + '\t' + c.getValue() + '\n');
+        }
+        return jar;
+    }
+
+    private static boolean visible(int access) {
+        return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) == 0;
+    }
+
+    static MessageDigest sha256() {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+    }
+
+    private Abi() {}
+}
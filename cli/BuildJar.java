@@ -1,21 +1,24 @@
-import org.objectweb.asm.tree.ClassNode;
-
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Assembles the custom android.jar entirely in memory: read the base SDK jar + the device's
@@ -38,9 +41,40 @@ import java.util.zip.ZipOutputStream;
  * com.android.internal.* + dalvik.* on top of the full base SDK jar; the base already provides the
  * curated java.*, javax.*, org.*, dalvik.* public stubs.
  *
- * <p>Usage: {@code BuildJar --base <jar> --out <jar> [--keep-bodies] [--keep-dangling] <overlay-jar>...}
+ * <p>Usage: {@code BuildJar --base <jar> --out <jar> [--keep-bodies | --api-only] [--keep-dangling]
+ * [--jobs N] [--heap-budget MB] [--stub-cache DIR [--stub-cache-max MB]] [--incremental] [--store]
+ * [--delta <jar>] [--split <dir>] [--release N] [--jdk-cache DIR] <overlay-jar>...}
  * Overlay jars are applied in argument order (last writer wins). Exit 1 on a real regression (a
  * public supertype missing from the assembled set) — pruning refuses to run so it can never mask it.
+ * {@code --jobs} caps the stub and deflate workers (default: one per core); the output is
+ * byte-identical for any value because every entry is stubbed and compressed independently, then
+ * appended in the original order. {@code --store} writes every entry STORED (uncompressed): a
+ * larger jar, but one javac and kotlinc read faster — for a jar that only lives in a local SDK.
+ * {@code --api-only} stubs with {@link Stubifier}'s API-surface mode: private/synthetic members and
+ * anonymous/local classes are left out, for a smaller jar every downstream compile reads faster.
+ * {@code --delta <jar>} also writes a second jar holding only the overlay entries that are new or
+ * differ from the base jar — for a class, in its {@linkplain Abi.Collector#signature signature} — to
+ * put on the compile classpath ahead of the stock SDK jar instead of replacing it.
+ * {@code --split <dir>} writes those same entries as one jar per overlay — i.e. per source boot
+ * jar, {@code framework-wifi.jar} and so on — plus an {@code index.tsv} mapping every entry to its
+ * module, so a module can compile against just the hidden surface it needs. A module jar's classes
+ * may still extend classes of another module (most often framework); the index tells which.
+ *
+ * <p>Only the zips' central directories are indexed up front (last writer wins by entry name); an
+ * entry's bytes are inflated when pruning, stubbing or writing first needs them. By default they then
+ * stay resident, as before. {@code --heap-budget MB} is the streaming mode for large boot classpaths:
+ * at most that many MB of inflated entry bytes are kept, and the stub + write stage runs window by
+ * window, so peak heap follows the budget rather than the total size of the inputs.
+ * {@code --stub-cache DIR} looks every class up in a {@link StubCache} shared across builds before
+ * running ASM on it; {@code --stub-cache-max} caps that directory (LRU eviction). Pruning resolves
+ * supertypes outside the jar against a {@link JdkIndex}: the running JDK's classes, or with
+ * {@code --release N} the Java N API; {@code --jdk-cache DIR} keeps that class list across runs.
+ *
+ * <p>{@code --incremental} records the build's inputs in {@code <out>.manifest} (see
+ * {@link BuildManifest}). The next incremental run with the same options copies every entry whose
+ * source jar's content is unchanged straight from the previous output and reuses its prune header;
+ * only entries from changed jars are parsed, stubbed and deflated. The output jar is always written
+ * to a temp file first and renamed into place, so an interrupted build never leaves a truncated jar.
  */
 public final class BuildJar {
 
@@ -48,102 +82,568 @@ public final class BuildJar {
     private static final String[] OVERLAY_NS = { "android/", "com/android/internal/", "dalvik/" };
 
     public static void main(String[] args) throws IOException {
-        String base = null, out = null;
-        boolean keepBodies = false, keepDangling = false;
+        String base = null, out = null, delta = null, splitDir = null;
+        boolean keepBodies = false, keepDangling = false, incremental = false, store = false, apiOnly = false;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        long budget = Long.MAX_VALUE;
+        String cacheDir = null, jdkCache = null;
+        int release = 0;
+        long cacheMb = Stubifier.DEFAULT_CACHE_MB;
         List<String> overlays = new ArrayList<>();
         for (int i = 0; i < args.length; i++) {
             switch (args[i]) {
                 case "--base":          base = args[++i]; break;
                 case "--out":           out = args[++i]; break;
                 case "--keep-bodies":   keepBodies = true; break;
+                case "--api-only":      apiOnly = true; break;
                 case "--keep-dangling": keepDangling = true; break;
+                case "--jobs":          jobs = Math.max(1, Integer.parseInt(args[++i])); break;
+                case "--heap-budget":   budget = Math.max(1, Long.parseLong(args[++i])) << 20; break;
+                case "--stub-cache":    cacheDir = args[++i]; break;
+                case "--stub-cache-max": cacheMb = Long.parseLong(args[++i]); break;
+                case "--incremental":   incremental = true; break;
+                case "--store":         store = true; break;
+                case "--delta":         delta = args[++i]; break;
+                case "--split":         splitDir = args[++i]; break;
+                case "--release":       release = Integer.parseInt(args[++i]); break;
+                case "--jdk-cache":     jdkCache = args[++i]; break;
                 default:                overlays.add(args[i]);
             }
         }
         if (base == null || out == null) {
-            System.err.println("usage: BuildJar --base <jar> --out <jar> [--keep-bodies] [--keep-dangling] <overlay-jar>...");
+            System.err.println("usage: BuildJar --base <jar> --out <jar> [--keep-bodies | --api-only] [--keep-dangling] [--jobs N] [--heap-budget MB] [--stub-cache DIR [--stub-cache-max MB]] [--incremental] [--store] [--delta <jar>] [--split <dir>] [--release N] [--jdk-cache DIR] <overlay-jar>...");
+            System.exit(2);
+            return;
+        }
+        if (apiOnly && keepBodies) {
+            System.err.println("BuildJar: --api-only stubs classes; it cannot be combined with --keep-bodies");
             System.exit(2);
             return;
         }
+        JdkIndex jdk;
+        try { jdk = keepDangling ? null : JdkIndex.load(release, jdkCache == null ? null : Paths.get(jdkCache)); }
+        catch (IllegalArgumentException e) { System.err.println("BuildJar: " + e.getMessage()); System.exit(2); return; }
+        if (budget != Long.MAX_VALUE) System.err.println("[build] streaming: at most " + (budget >> 20) + " MB of entry bytes resident");
+        StubCache cache = cacheDir == null || keepBodies ? null : new StubCache(Paths.get(cacheDir), cacheMb << 20,
+                Stubifier.flavor(apiOnly));
+
+        Path outPath = Paths.get(out);
+        Path tmpPath = outPath.resolveSibling(outPath.getFileName() + ".tmp");
+        Path manifestPath = outPath.resolveSibling(outPath.getFileName() + ".manifest");
+        Path abiPath = outPath.resolveSibling(outPath.getFileName() + ".abi");
+        Path deltaPath = delta == null ? null : Paths.get(delta);
+        Path deltaTmp = delta == null ? null : deltaPath.resolveSibling(deltaPath.getFileName() + ".tmp");
+        List<String> inputs = new ArrayList<>();
+        inputs.add(base);
+        inputs.addAll(overlays);
+        // Everything besides the inputs that changes an entry's output bytes.
+        String options = "keepBodies=" + keepBodies + " keepDangling=" + keepDangling + " store=" + store
+                + " stubs=" + StubCache.FORMAT + "/" + Stubifier.flavor(apiOnly);
+        BuildManifest manifest = incremental ? new BuildManifest(options) : null;
+        List<Entry> candidates = null;
+        Split split = null;
+        Map<String, String> abi = new HashMap<>();
 
-        // Case-sensitive keys => two case-variant classes are two entries; nothing is ever collapsed.
-        LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
-        readInto(base, entries, null);                       // base: everything except META-INF
-        for (String ov : overlays) readInto(ov, entries, OVERLAY_NS); // overlay: allowlisted namespaces only
-
-        // Prune (default): drop classes whose supertype chain is not resolvable, so the jar's graph
-        // is closed like the stock android.jar. Abort instead if a PUBLIC supertype is truly missing.
-        if (!keepDangling) {
-            Map<String, ClassNode> nodes = new HashMap<>();
-            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
-                if (!e.getKey().endsWith(".class")) continue;
-                try (InputStream in = new ByteArrayInputStream(e.getValue())) {
-                    ClassNode cn = ClosureVerify.read(in);
-                    nodes.put(cn.name, cn);
+        List<RawZip.Reader> zips = new ArrayList<>();
+        try {
+            // Case-sensitive keys => two case-variant classes are two entries; nothing is ever collapsed.
+            // Only the central directories are read here; entry bytes are inflated on first use.
+            // base: everything except META-INF; overlays: allowlisted namespaces only.
+            LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+            String[] digests = new String[inputs.size()];
+            for (int i = 0; i < inputs.size(); i++) {
+                digests[i] = indexInto(inputs.get(i), i, incremental, zips, entries, i == 0 ? null : OVERLAY_NS);
+                // The SDK android.jar is stubs already ("Stub!" bodies, no try/catch): its classes only
+                // need a header for pruning and are copied still-compressed, never run through ASM.
+                if (i == 0) for (Entry e : entries.values()) e.asIs = true;
+            }
+            BuildManifest prev = null;
+            if (incremental) {
+                manifest.jarDigests.addAll(Arrays.asList(digests));
+                prev = BuildManifest.read(manifestPath, options);
+                if (prev == null) System.err.println("[build] incremental: no usable manifest at " + manifestPath + " — full build");
+            }
+            if (prev != null && Files.isRegularFile(outPath)) {
+                RawZip.Reader prevOut = new RawZip.Reader(outPath, false);   // about to be replaced: never mapped
+                zips.add(prevOut);
+                int changed = 0;
+                for (String d : digests) if (!prev.jarDigests.contains(d)) changed++;
+                int reused = reuse(prev, prevOut, Abi.read(abiPath, options), entries);
+                System.err.println("[build] incremental: " + changed + " of " + inputs.size() + " input jar(s) changed; reusing "
+                        + reused + " of " + entries.size() + " entries from the previous output");
+            }
+            if (incremental) candidates = new ArrayList<>(entries.values());
+            int droppedInScan = 0;
+
+            // Prune (default): drop classes whose supertype chain is not resolvable, so the jar's graph
+            // is closed like the stock android.jar. Abort instead if a PUBLIC supertype is truly missing.
+            if (!keepDangling) {
+                int before = entries.size();
+                ClassGraph graph = scanHeaders(entries, jobs, budget, !keepBodies, apiOnly, cache,
+                        deltaPath != null || splitDir != null);
+                droppedInScan = before - entries.size();
+                System.err.println("[build] JDK classes: " + jdk.describe());
+                List<String> hard = ClosureVerify.hardMissing(graph, jdk);
+                if (!hard.isEmpty()) {
+                    System.err.println("[build] ABORT — public supertype(s) missing; a real regression, not pruning:");
+                    for (String s : hard) System.err.println("[build]   " + s);
+                    System.exit(1);
+                    return;
                 }
+                Set<String> remove = ClosureVerify.soakDangling(graph, jdk);   // internal names
+                for (String name : remove) entries.remove(name + ".class");
+                System.err.println("[build] pruned " + remove.size() + " dangling class(es) (supertype graph closed)");
             }
-            List<String> hard = ClosureVerify.hardMissing(nodes);
-            if (!hard.isEmpty()) {
-                System.err.println("[build] ABORT — public supertype(s) missing; a real regression, not pruning:");
-                for (String s : hard) System.err.println("[build]   " + s);
-                System.exit(1);
-                return;
+            if (keepBodies) {
+                System.err.println("[build] --keep-bodies: real method bodies kept; Gradle lint/unit tests will FAIL on this jar");
             }
-            Set<String> remove = ClosureVerify.soakDangling(nodes);   // internal names
-            for (String name : remove) entries.remove(name + ".class");
-            System.err.println("[build] pruned " + remove.size() + " dangling class(es) (supertype graph closed)");
-        }
 
-        // Stubify (default): replace method bodies with `throw new RuntimeException("Stub!")` so
-        // Gradle's MockableJarTransform accepts the jar (issue #46). javac only reads signatures.
-        if (!keepBodies) {
-            int n = 0;
-            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
-                if (!e.getKey().endsWith(".class")) continue;
-                try { e.setValue(Stubifier.stubify(e.getValue())); n++; }
-                catch (Throwable t) { System.err.println("[build] keep-as-is (unstubbable): " + e.getKey()); }
+            // Stubify (default): replace method bodies with `throw new RuntimeException("Stub!")` so
+            // Gradle's MockableJarTransform accepts the jar (issue #46). javac only reads signatures.
+            // Entries are processed in windows of at most `budget` bytes: a window's classes are
+            // stubbed on `jobs` workers (unless the prune scan already stubbed them in its single
+            // pass), then the window is written in entry order and released. Each
+            // result stays with its own entry, so the output is the same for any --jobs/--heap-budget.
+            // An entry nothing rewrote (resources; base SDK classes, which are stubs already; every
+            // class under --keep-bodies or that could not be stubbed) is copied still-compressed from
+            // its source jar: no inflate, no re-deflate — unless it is a STORED overlay entry (hiddenjar's
+            // uncompressed DexConvert stores), which is deflated here, once. The rest is deflated (or, with
+            // --store, stored) by the same workers that stub it; the writer thread only appends, in the
+            // original order. An --api-only class the stubber drops (anonymous/local) is skipped.
+            List<Entry> all = new ArrayList<>(entries.values());
+            int method = store ? RawZip.STORED : RawZip.DEFLATED;
+            int classes = 0, stubbed = 0, passed = 0, copied = 0, dropped = 0, inDelta = 0;
+            boolean wantDelta = deltaPath != null || splitDir != null;
+            try (RawZip.Writer zw = new RawZip.Writer(tmpPath);
+                 RawZip.Writer dw = deltaPath == null ? null : new RawZip.Writer(deltaTmp);
+                 Split sw = split = splitDir == null ? null : new Split(Paths.get(splitDir), inputs)) {
+                for (int from = 0, to; from < all.size(); from = to) {
+                    to = windowEnd(all, from, budget);
+                    List<Entry> window = all.subList(from, to);
+                    boolean[] failed = new boolean[window.size()];
+                    boolean stub = !keepBodies, api = apiOnly;
+                    parallelFor(window.size(), jobs, i -> {
+                        Entry e = window.get(i);
+                        if (stub && e.isClass() && !e.rewritten && !e.asIs) {
+                            byte[] b = e.bytes();
+                            Abi.Collector collector = e.abi == null ? new Abi.Collector(null) : null;
+                            try {
+                                e.data = Stubifier.stubify(b, null, collector, cache, api);
+                                e.rewritten = true;
+                                e.dropped = e.data == null;
+                                if (collector != null && !e.dropped) setAbi(e, collector);
+                            } catch (Throwable t) {
+                                failed[i] = true;
+                            }
+                        }
+                        if (e.dropped) return;
+                        // Digests come from the pass that read the class; only an entry no such pass saw
+                        // (--keep-dangling copies, reused entries under --delta) is parsed for them here.
+                        if (e.isClass() && (e.abi == null || wantDelta && e.source > 0 && e.signature == null)) {
+                            if (e.data != null) digest(e, e.data, e.data.length);
+                            else digest(e, e.zip.scratch(e.ze), (int) e.ze.size);
+                        }
+                        if (wantDelta && e.source > 0) e.delta = differsFromBase(e);
+                        if (e.rewritten) {
+                            e.packed = RawZip.pack(e.name, e.data, method);
+                        } else if (method == RawZip.STORED && e.ze.method != RawZip.STORED) {
+                            e.packed = RawZip.pack(e.name, e.bytes(), method);   // --store: inflate once
+                        } else if (method != RawZip.STORED && e.ze.method == RawZip.STORED && e.source > 0) {
+                            e.packed = RawZip.pack(e.name, e.bytes(), method);   // uncompressed overlay: deflate once
+                        } else {
+                            e.raw = e.zip.rawBuffer(e.ze);
+                        }
+                        e.data = null;
+                    });
+                    for (int i = 0; i < window.size(); i++) {
+                        Entry e = window.get(i);
+                        if (e.dropped) { dropped++; continue; }
+                        if (e.delta) {
+                            if (dw != null) append(dw, e);
+                            if (sw != null) sw.add(e);
+                            inDelta++;
+                        }
+                        append(zw, e);   // fixed 1980 timestamp: deterministic
+                        if (e.packed == null) copied++;
+                        e.packed = null;
+                        e.raw = null;
+                        if (!e.isClass()) continue;
+                        classes++;
+                        abi.put(e.name, e.abi);
+                        if (!stub) continue;
+                        if (e.asIs) { passed++; continue; }
+                        if (failed[i]) System.err.println("[build] keep-as-is (unstubbable): " + e.name);
+                        else stubbed++;
+                    }
+                }
+            }
+            if (!keepBodies) System.err.println("[build] stubbed " + stubbed + " class(es) on " + jobs + " worker(s); "
+                    + passed + " already stubs (base SDK / previous output), left as-is");
+            if (apiOnly) System.err.println("[build] api-only: dropped " + (dropped + droppedInScan)
+                    + " anonymous/local class(es) and every private/synthetic member");
+            if (cache != null) System.err.println("[build] stub cache: " + cache.report());
+            System.err.println("[build] wrote " + out + " (" + (all.size() - dropped) + " entries, " + classes + " classes, "
+                    + copied + " copied without recompression" + (store ? ", all STORED" : "") + ")");
+            if (deltaPath != null) {
+                System.err.println("[build] wrote delta " + deltaPath + " (" + inDelta + " overlay entries new or changed vs the base)");
             }
-            System.err.println("[build] stubbed " + n + " class(es)");
-        } else {
-            System.err.println("[build] --keep-bodies: real method bodies kept; Gradle lint/unit tests will FAIL on this jar");
+            if (split != null) {
+                System.err.println("[build] wrote split " + splitDir + " (" + inDelta + " entries in " + split.modules()
+                        + " module jar(s) + index.tsv)");
+            }
+        } finally {
+            for (RawZip.Reader z : zips) z.close();
+            if (cache != null) cache.close();
         }
 
-        int classes = 0;
-        try (ZipOutputStream zos = new ZipOutputStream(
-                new BufferedOutputStream(Files.newOutputStream(Paths.get(out))))) {
-            for (Map.Entry<String, byte[]> e : entries.entrySet()) {
-                ZipEntry ze = new ZipEntry(e.getKey());
-                ze.setTime(0L);   // deterministic, matches the SDK jar's fixed timestamps
-                zos.putNextEntry(ze);
-                zos.write(e.getValue());
-                zos.closeEntry();
-                if (e.getKey().endsWith(".class")) classes++;
+        // A manifest or .abi must never describe a jar other than the one next to it: drop the old
+        // ones before the new jar lands, and only write the new ones once it has.
+        Files.deleteIfExists(manifestPath);
+        Files.deleteIfExists(abiPath);
+        replace(tmpPath, outPath);
+        Path abiTmp = abiPath.resolveSibling(abiPath.getFileName() + ".tmp");
+        String jarAbi = Abi.write(abiTmp, options, abi);
+        replace(abiTmp, abiPath);
+        System.err.println("[build] ABI " + jarAbi.substring(0, 16) + " (" + abi.size() + " classes) -> " + abiPath);
+        if (deltaPath != null) replace(deltaTmp, deltaPath);
+        if (split != null) split.commit();
+        if (manifest != null) {
+            // A dropped class is left out, so the next run parses (and drops) it again before pruning.
+            for (Entry e : candidates) {
+                if (!e.dropped) manifest.entries.put(e.name, new BuildManifest.Source(e.digest, e.header));
             }
+            manifest.write(manifestPath, inputs);
+        }
+    }
+
+    /**
+     * {@code --incremental}: replaces every entry that still wins from a jar with the same digest as
+     * last time by the previous output's entry, to be copied as-is, and restores its prune header.
+     * An entry that was pruned last time has no output entry but keeps its header; a reused class also
+     * keeps its digest from the previous {@code .abi} file. Returns the number of entries taken from
+     * the previous output.
+     */
+    private static int reuse(BuildManifest prev, RawZip.Reader prevOut, Map<String, String> prevAbi,
+                             LinkedHashMap<String, Entry> entries) {
+        Map<String, RawZip.Entry> old = new HashMap<>();
+        for (RawZip.Entry ze : prevOut.entries()) old.put(ze.name, ze);
+        int n = 0;
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            BuildManifest.Source src = prev.entries.get(e.name);
+            if (src == null || !src.digest.equals(e.digest)) continue;
+            RawZip.Entry ze = old.get(e.name);
+            if (ze == null) { e.header = src.header; continue; }
+            Entry r = new Entry(prevOut, ze, e.digest, e.source);
+            r.asIs = true;
+            r.header = src.header;
+            r.abi = prevAbi.get(e.name);
+            r.shadowed = e.shadowed;
+            me.setValue(r);   // same key, so the entry keeps its place in the output order
+            n++;
         }
-        System.err.println("[build] wrote " + out + " (" + entries.size() + " entries, " + classes + " classes)");
+        return n;
     }
 
-    /** Copies entries from {@code jar} into {@code map} (last writer wins), skipping META-INF and,
-     *  when {@code nsFilter} is non-null, anything outside those path prefixes. */
-    private static void readInto(String jar, Map<String, byte[]> map, String[] nsFilter) throws IOException {
-        try (ZipFile z = new ZipFile(jar)) {
-            Enumeration<? extends ZipEntry> e = z.entries();
-            while (e.hasMoreElements()) {
-                ZipEntry en = e.nextElement();
-                if (en.isDirectory()) continue;
-                String name = en.getName();
-                if (name.startsWith("META-INF/")) continue;
-                if (nsFilter != null) {
-                    boolean ok = false;
-                    for (String p : nsFilter) if (name.startsWith(p)) { ok = true; break; }
-                    if (!ok) continue;
+    /** One winning entry of the assembled jar: where its bytes live and, while resident, the bytes. */
+    private static final class Entry {
+        final String name;
+        final RawZip.Reader zip;
+        final RawZip.Entry ze;
+        final String digest;  // of the input jar the entry won from; only with --incremental
+        final int source;     // index of that input jar: 0 = base, 1.. = overlays in argument order
+        String[] header;      // prune header { name, super, interfaces... }, once scanned (or from the manifest)
+        byte[] data;          // null until inflated; dropped again once written or when over budget
+        ByteBuffer raw;       // still-compressed source bytes (a slice of the mapped jar) until written
+        RawZip.Packed packed; // freshly compressed bytes, only between packing and writing
+        String abi;           // hex Abi digest of the output class, for <out>.abi
+        String signature;     // hex Abi signature digest of the output class, for --delta
+        Entry shadowed;       // the base jar's entry of the same name this overlay entry won over
+        boolean rewritten;    // data differs from the source entry, so it must be deflated afresh
+        boolean asIs;         // the source bytes already are the output (never stubbed again)
+        boolean dropped;      // --api-only left the class out (anonymous/local)
+        boolean delta;        // --delta: an overlay entry that is new or changed vs the base
+
+        Entry(RawZip.Reader zip, RawZip.Entry ze, String digest, int source) {
+            this.name = ze.name; this.zip = zip; this.ze = ze; this.digest = digest; this.source = source;
+        }
+
+        boolean isClass() { return name.endsWith(".class"); }
+
+        /** Size the entry occupies once inflated — the unit the heap budget is counted in. */
+        long cost() { return data != null ? data.length : ze.size; }
+
+        byte[] bytes() throws IOException {
+            if (data == null) data = zip.bytes(ze);
+            return data;
+        }
+    }
+
+    /** First index after {@code from} such that the window's inflated size stays within {@code budget}
+     *  (always at least one entry, so a single oversized entry still makes progress). */
+    private static int windowEnd(List<Entry> all, int from, long budget) {
+        long sum = all.get(from).cost();
+        int to = from + 1;
+        while (to < all.size() && sum + all.get(to).cost() <= budget) sum += all.get(to++).cost();
+        return to;
+    }
+
+    /** Parses the header of every class entry that has none yet on {@code jobs} workers, window by
+     *  window. With {@code stub} set, the same single ASM pass also produces the stub, so a class is
+     *  parsed once for both pruning and stubbing; either way that pass also records the output's
+     *  {@link Abi} digests, and with {@code delta} those of every base class an overlay shadows. Bytes
+     *  stay resident for the write phase only while they fit in {@code budget}; a dropped stub is
+     *  simply redone there. */
+    private static ClassGraph scanHeaders(LinkedHashMap<String, Entry> entries, int jobs, long budget,
+                                          boolean stub, boolean apiOnly, StubCache cache, boolean delta)
+            throws IOException {
+        List<Entry> classes = new ArrayList<>();
+        for (Entry e : entries.values()) {
+            if (!e.isClass()) continue;
+            if (e.header == null) classes.add(e);
+            if (delta && e.shadowed != null && e.shadowed.signature == null) classes.add(e.shadowed);
+        }
+        long resident = 0;
+        for (int from = 0, to; from < classes.size(); from = to) {
+            to = windowEnd(classes, from, budget);
+            int off = from;
+            parallelFor(to - from, jobs, i -> {
+                Entry e = classes.get(off + i);
+                if (!stub || e.asIs) {
+                    // Header only: parsed out of the worker's scratch buffer, nothing stays resident.
+                    scanAsIs(e, e.zip.scratch(e.ze), (int) e.ze.size);
+                    return;
+                }
+                byte[] b = e.bytes();
+                String[][] h = new String[1][];
+                Abi.Collector abi = new Abi.Collector(null);
+                try {
+                    e.data = Stubifier.stubify(b, h, abi, cache, apiOnly);
+                    e.rewritten = true;
+                    e.dropped = e.data == null;
+                    e.header = h[0];
+                    if (!e.dropped) setAbi(e, abi);
+                } catch (Throwable t) {
+                    // Reported as keep-as-is by the write phase; the header may still parse.
+                    scanAsIs(e, b, b.length);
                 }
-                try (InputStream in = z.getInputStream(en)) {
-                    map.put(name, in.readAllBytes());
+            });
+            for (int i = from; i < to; i++) {
+                Entry e = classes.get(i);
+                if (e.data == null) continue;
+                if (resident + e.data.length <= budget) resident += e.data.length;
+                else { e.data = null; e.rewritten = false; }
+            }
+        }
+        entries.values().removeIf(e -> e.dropped);
+        ClassGraph graph = new ClassGraph();
+        for (Entry e : entries.values()) {
+            if (e.isClass()) graph.define(e.header);
+        }
+        return graph;
+    }
+
+    /** Header and {@link Abi} digests of a class that is copied as it is, from one parse of
+     *  {@code bytes[0, length)}. */
+    private static void scanAsIs(Entry e, byte[] bytes, int length) {
+        Abi.Collector abi = new Abi.Collector(null);
+        try {
+            e.header = ClosureVerify.header(bytes, length, abi);
+            setAbi(e, abi);
+        } catch (RuntimeException unparseable) {
+            e.header = ClosureVerify.header(bytes, length);
+            e.abi = e.signature = Abi.rawHex(bytes, length);
+        }
+    }
+
+    /** {@link Abi} digests of the class in {@code bytes[0, length)}, for an entry no earlier pass saw. */
+    private static void digest(Entry e, byte[] bytes, int length) {
+        try {
+            setAbi(e, Abi.collect(bytes, length));
+        } catch (RuntimeException unparseable) {
+            e.abi = e.signature = Abi.rawHex(bytes, length);
+        }
+    }
+
+    private static void setAbi(Entry e, Abi.Collector abi) {
+        e.abi = Abi.hex(abi.digest());
+        e.signature = Abi.hex(abi.signature());
+    }
+
+    /** Appends {@code e}'s prepared bytes (packed, or a raw slice that stays reusable) to {@code w}. */
+    private static void append(RawZip.Writer w, Entry e) throws IOException {
+        if (e.packed != null) w.add(e.packed);
+        else w.copy(e.ze, e.raw.duplicate());
+    }
+
+    /** Moves a finished temp file over {@code to}, atomically where the filesystem allows. */
+    static void replace(Path from, Path to) throws IOException {
+        try { Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch (AtomicMoveNotSupportedException e) { Files.move(from, to, StandardCopyOption.REPLACE_EXISTING); }
+    }
+
+    /**
+     * {@code --split}: one jar per overlay (source boot jar) holding that overlay's delta entries, and
+     * {@code index.tsv} — {@code module <name> <jar> <entries>} per module, then
+     * {@code entry <name> <module>} per entry in output order. Jars are written as temp files and
+     * only renamed into place by {@link #commit}, which also deletes module jars the previous
+     * {@code index.tsv} listed but this build no longer writes — other files in the directory are
+     * left alone.
+     */
+    private static final class Split implements java.io.Closeable {
+        private final Path dir;
+        private final String[] modules;            // by input index; [0] (the base) unused
+        private final RawZip.Writer[] writers;
+        private final int[] counts;
+        private final List<String> index = new ArrayList<>();
+
+        Split(Path dir, List<String> inputs) throws IOException {
+            this.dir = dir;
+            Files.createDirectories(dir);
+            modules = new String[inputs.size()];
+            writers = new RawZip.Writer[inputs.size()];
+            counts = new int[inputs.size()];
+            Set<String> used = new HashSet<>();
+            for (int i = 1; i < inputs.size(); i++) {
+                String m = moduleName(inputs.get(i));
+                modules[i] = used.add(m) ? m : m + "-" + i;
+                used.add(modules[i]);
+            }
+        }
+
+        /** {@code framework-wifi} for hiddenjar's
+         *  {@code apex_com.android.wifi_javalib_framework-wifi-classes.jar} (a device path with '/'
+         *  flattened to '_'); any other jar keeps its file name minus {@code .jar}. */
+        static String moduleName(String jar) {
+            String n = Paths.get(jar).getFileName().toString();
+            if (n.endsWith(".jar")) n = n.substring(0, n.length() - 4);
+            if (n.endsWith("-classes")) n = n.substring(0, n.length() - 8);
+            int us = n.lastIndexOf('_');
+            return us >= 0 && us < n.length() - 1 ? n.substring(us + 1) : n;
+        }
+
+        void add(Entry e) throws IOException {
+            int s = e.source;
+            if (writers[s] == null) writers[s] = new RawZip.Writer(dir.resolve(modules[s] + ".jar.tmp"));
+            append(writers[s], e);
+            counts[s]++;
+            index.add("entry\t" + e.name + '\t' + modules[s]);
+        }
+
+        int modules() {
+            int n = 0;
+            for (RawZip.Writer w : writers) if (w != null) n++;
+            return n;
+        }
+
+        @Override public void close() throws IOException {
+            for (RawZip.Writer w : writers) if (w != null) w.close();
+        }
+
+        void commit() throws IOException {
+            Set<String> stale = new HashSet<>();
+            Path indexPath = dir.resolve("index.tsv");
+            if (Files.isRegularFile(indexPath)) {
+                for (String line : Files.readAllLines(indexPath, StandardCharsets.UTF_8)) {
+                    String[] f = line.split("\t", -1);
+                    if (f.length == 4 && f[0].equals("module")) stale.add(f[2]);
                 }
             }
+            List<String> lines = new ArrayList<>();
+            for (int i = 1; i < modules.length; i++) {
+                if (writers[i] == null) continue;
+                Path jar = dir.resolve(modules[i] + ".jar");
+                replace(dir.resolve(modules[i] + ".jar.tmp"), jar);
+                stale.remove(jar.getFileName().toString());
+                lines.add("module\t" + modules[i] + '\t' + jar.getFileName() + '\t' + counts[i]);
+            }
+            for (String s : stale) Files.deleteIfExists(dir.resolve(s));
+            lines.addAll(index);
+            Path tmp = dir.resolve("index.tsv.tmp");
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            replace(tmp, indexPath);
         }
     }
 
+    /** {@code --delta}: whether an overlay entry is missing from the base jar or differs from the base's
+     *  entry — by content for a resource, by {@link Abi.Collector#signature signature} for a class
+     *  (stub bodies, and the annotations an SDK stub and a dex2jar stub disagree on, never count). */
+    private static boolean differsFromBase(Entry e) throws IOException {
+        Entry b = e.shadowed;
+        if (b == null) return true;
+        if (!e.isClass()) return b.ze.crc != e.ze.crc || b.ze.size != e.ze.size;
+        if (b.signature == null) digest(b, b.zip.scratch(b.ze), (int) b.ze.size);   // not scanned (--keep-dangling)
+        return !e.signature.equals(b.signature);
+    }
+
+    /** Indexes {@code jar}'s central directory into {@code map} (last writer wins), skipping META-INF
+     *  and, when {@code nsFilter} is non-null, anything outside those path prefixes. The zip stays open
+     *  (added to {@code zips}) so winning entries can be read later. */
+    private static String indexInto(String jar, int source, boolean digest, List<RawZip.Reader> zips,
+                                    Map<String, Entry> map, String[] nsFilter) throws IOException {
+        RawZip.Reader z = new RawZip.Reader(Paths.get(jar));
+        zips.add(z);
+        String d = digest ? BuildManifest.digest(z) : null;
+        for (RawZip.Entry en : z.entries()) {
+            if (en.isDirectory()) continue;
+            String name = en.name;
+            if (name.startsWith("META-INF/")) continue;
+            if (nsFilter != null) {
+                boolean ok = false;
+                for (String p : nsFilter) if (name.startsWith(p)) { ok = true; break; }
+                if (!ok) continue;
+            }
+            Entry e = new Entry(z, en, d, source);
+            Entry lost = map.put(name, e);
+            if (lost != null && source > 0) e.shadowed = lost.source == 0 ? lost : lost.shadowed;
+        }
+        return d;
+    }
+
+    /**
+     * Runs {@code body} for every index in {@code [0, n)} on up to {@code jobs} daemon threads. Work
+     * is claimed one index at a time, so a few slow classes never leave the other workers idle. The
+     * body must only write state owned by its index; completion happens-before this method returns.
+     */
+    static void parallelFor(int n, int jobs, IndexTask body) throws IOException {
+        int threads = Math.min(jobs, n);
+        if (threads <= 1) {
+            for (int i = 0; i < n; i++) body.run(i);
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "buildjar-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    for (int i; (i = next.getAndIncrement()) < n; ) body.run(i);
+                    return null;
+                }));
+            }
+            for (Future<Void> f : futures) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof IOException) throw (IOException) c;
+            if (c instanceof RuntimeException) throw (RuntimeException) c;
+            if (c instanceof Error) throw (Error) c;
+            throw new IllegalStateException(c);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Loop body for {@link #parallelFor}; may fail with the I/O error of reading an entry. */
+    interface IndexTask {
+        void run(int i) throws IOException;
+    }
+
     private BuildJar() {}
 }
@@ -0,0 +1,115 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What one {@link BuildJar} run was built from, written next to its output as {@code <out>.manifest}
+ * so the next {@code --incremental} run can tell which entries it may reuse.
+ *
+ * <p>It records the content digest ({@link #digest}) of every input jar and, for every candidate
+ * entry (before pruning), the digest of the jar the entry won from plus, for classes, the prune
+ * header (super + interfaces). An entry's output bytes depend only on its input bytes and the build
+ * options, so when the entry still wins from a jar with the same digest, the previous output's
+ * compressed bytes are copied as-is and its header is reused — only entries from changed jars are
+ * parsed, stubbed and deflated.
+ *
+ * <p>Text, one record per line, tab-separated: {@code jar <sha256> <path>}, then
+ * {@code c <name> <sha256> <super|-> <iface,...>} for a class with a known header, and
+ * {@code r <name> <sha256>} for a resource or a class scanned without one (--keep-dangling).
+ */
+final class BuildManifest {
+
+    static final String FORMAT = "buildjar-manifest-v2";
+
+    /** Where one entry came from, and its header when it is a scanned class. */
+    static final class Source {
+        final String digest;
+        final String[] header;    // { name, super, interfaces... }; null for resources and unscanned classes
+
+        Source(String digest, String[] header) { this.digest = digest; this.header = header; }
+    }
+
+    final String options;
+    final List<String> jarDigests = new ArrayList<>();
+    final Map<String, Source> entries = new HashMap<>();
+
+    BuildManifest(String options) { this.options = options; }
+
+    /** The manifest at {@code path} if it exists, parses, and was written with the same options. */
+    static BuildManifest read(Path path, String options) {
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!FORMAT.equals(r.readLine())) return null;
+            BuildManifest m = new BuildManifest(r.readLine());
+            if (!options.equals(m.options)) return null;
+            for (String line; (line = r.readLine()) != null; ) {
+                String[] f = line.split("\t", -1);
+                switch (f[0]) {
+                    case "jar": m.jarDigests.add(f[1]); break;
+                    case "r":   m.entries.put(f[1], new Source(f[2], null)); break;
+                    case "c": {
+                        String[] h = ClosureVerify.header(f[1].substring(0, f[1].length() - ".class".length()),
+                                f[3].equals("-") ? null : f[3], f[4].isEmpty() ? null : f[4].split(","));
+                        m.entries.put(f[1], new Source(f[2], h));
+                        break;
+                    }
+                    default: return null;
+                }
+            }
+            return m;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[build] ignoring unreadable manifest " + path + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+
+    /** Writes the manifest; {@code jars} are the input paths in {@link #jarDigests} order. */
+    void write(Path path, List<String> jars) throws IOException {
+        try (BufferedWriter w = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            w.write(FORMAT); w.write('\n');
+            w.write(options); w.write('\n');
+            for (int i = 0; i < jarDigests.size(); i++) {
+                w.write("jar\t" + jarDigests.get(i) + '\t' + jars.get(i) + '\n');
+            }
+            for (Map.Entry<String, Source> e : entries.entrySet()) {
+                Source s = e.getValue();
+                String[] h = s.header;
+                if (h == null) {
+                    w.write("r\t" + e.getKey() + '\t' + s.digest + '\n');
+                } else {
+                    w.write("c\t" + e.getKey() + '\t' + s.digest + '\t' + (h[1] == null ? "-" : h[1])
+                            + '\t' + String.join(",", Arrays.asList(h).subList(2, h.length)) + '\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Hex SHA-256 over a jar's central directory: every entry's name, CRC-32 and size, in order. Two
+     * jars with equal content digest alike even when their timestamps differ (dex2jar stamps each run
+     * with the current time), and no entry data is read.
+     */
+    static String digest(RawZip.Reader zip) {
+        MessageDigest md;
+        try { md = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        for (RawZip.Entry e : zip.entries()) {
+            md.update((e.name + '\0' + e.crc + '\0' + e.size + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : md.digest()) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The supertype graph of a set of classes, compact: every class name — defined here or only
+ * referenced as a supertype — is interned to an int id, and a defined class keeps its direct
+ * superclass and interfaces as one {@code int[]} of ids. No {@code ClassNode} and no per-query
+ * lists, so {@link ClosureVerify}'s gate and {@link BuildJar}'s prune over a full boot classpath
+ * (~100k classes) walk flat arrays instead of a map of trees.
+ *
+ * <p>Ids are dense and assigned in first-seen order. Defining a name twice keeps the last edges, like
+ * the {@code Map.put} it replaces. Not thread-safe: build it on one thread, then only read.
+ */
+final class ClassGraph {
+
+    private static final int[] NO_EDGES = new int[0];
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private String[] names = new String[1024];
+    private int[][] supers = new int[1024][];   // null: referenced only, not defined here
+    private int size;
+    private int defined;
+
+    /** The id of {@code name}, assigning the next one on first sight. */
+    int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            supers = Arrays.copyOf(supers, size * 2);
+        }
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /** Defines {@code name} with its direct supertypes ({@code superName} null for java/lang/Object). */
+    void define(String name, String superName, List<String> interfaces) {
+        int n = (superName == null ? 0 : 1) + (interfaces == null ? 0 : interfaces.size());
+        int[] edges = n == 0 ? NO_EDGES : new int[n];
+        int k = 0;
+        if (superName != null) edges[k++] = intern(superName);
+        if (interfaces != null) for (String i : interfaces) edges[k++] = intern(i);
+        int id = intern(name);
+        if (supers[id] == null) defined++;
+        supers[id] = edges;
+    }
+
+    /** Defines a class from its header, {@code { name, super (may be null), interfaces... }}. */
+    void define(String[] header) {
+        int n = header.length - (header[1] == null ? 2 : 1);
+        int[] edges = n == 0 ? NO_EDGES : new int[n];
+        int k = 0;
+        for (int i = 1; i < header.length; i++) if (header[i] != null) edges[k++] = intern(header[i]);
+        int id = intern(header[0]);
+        if (supers[id] == null) defined++;
+        supers[id] = edges;
+    }
+
+    /** Number of ids: defined classes plus names only referenced as supertypes. */
+    int size() { return size; }
+
+    /** Number of classes defined here. */
+    int defined() { return defined; }
+
+    boolean isDefined(int id) { return supers[id] != null; }
+
+    /** Lookup only, never interns: safe from many threads once the graph is built. */
+    boolean isDefined(String name) {
+        Integer id = ids.get(name);
+        return id != null && supers[id] != null;
+    }
+
+    String name(int id) { return names[id]; }
+
+    /** Direct supertype ids of a defined class (superclass first); empty for a referenced-only name. */
+    int[] supers(int id) { return supers[id] == null ? NO_EDGES : supers[id]; }
+
+    /** Per id: whether {@code jdk} has a class of that name. One lookup per name, however many
+     *  classes reference it. */
+    boolean[] inJdk(JdkIndex jdk) {
+        boolean[] in = new boolean[size];
+        for (int id = 0; id < size; id++) in[id] = jdk.contains(names[id]);
+        return in;
+    }
+}
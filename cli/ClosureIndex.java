@@ -0,0 +1,108 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the last {@code ClosureVerify --index} run saw, so the next run re-checks only what changed.
+ *
+ * <p>Per class file it records a change stamp (CRC-32 and size of a jar entry; size and mtime of a
+ * file), the class header (name, superclass, interfaces) and the supertypes that did not resolve.
+ * Together the headers are the class graph, and {@link #dependents} inverts them into the reverse
+ * index: which classes name a given supertype. A class's result depends only on its own edges and on
+ * whether each supertype is defined, so an unchanged class is re-checked only when a class named like
+ * one of its supertypes appeared, changed or went away — everything else reuses its recorded result.
+ * An index written against another JDK class list is ignored.
+ *
+ * <p>Text, one record per line, tab-separated after {@link #FORMAT} and the JDK index id:
+ * {@code <key> <stamp> <name> <super|-> <iface,...> <missing,...>}.
+ */
+final class ClosureIndex {
+
+    static final String FORMAT = "closure-index-v1";
+
+    /** One class file as last seen. */
+    static final class Rec {
+        final String stamp;
+        final String[] header;    // { name, super (may be null), interfaces... }
+        final String[] missing;   // direct supertypes that resolved nowhere
+
+        Rec(String stamp, String[] header, String[] missing) {
+            this.stamp = stamp; this.header = header; this.missing = missing;
+        }
+    }
+
+    private static final String[] NONE = new String[0];
+
+    final Map<String, Rec> entries = new HashMap<>();
+    private Map<String, List<String>> dependents;
+
+    /** Keys of the recorded class files that name {@code supertype} as superclass or interface. */
+    List<String> dependents(String supertype) {
+        if (dependents == null) {
+            dependents = new HashMap<>();
+            for (Map.Entry<String, Rec> e : entries.entrySet()) {
+                String[] h = e.getValue().header;
+                for (int k = 1; k < h.length; k++) {
+                    if (h[k] != null) dependents.computeIfAbsent(h[k], x -> new ArrayList<>(2)).add(e.getKey());
+                }
+            }
+        }
+        List<String> d = dependents.get(supertype);
+        return d == null ? Collections.emptyList() : d;
+    }
+
+    /** The index at {@code path} if it exists, parses, and was written against {@code jdkId}. */
+    static ClosureIndex read(Path path, String jdkId) {
+        try (BufferedReader r = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            if (!FORMAT.equals(r.readLine()) || !jdkId.equals(r.readLine())) return null;
+            ClosureIndex idx = new ClosureIndex();
+            for (String line; (line = r.readLine()) != null; ) {
+                String[] f = line.split("\t", -1);
+                if (f.length != 6) return null;
+                String[] ifaces = split(f[4]);
+                String[] h = new String[2 + ifaces.length];
+                h[0] = f[2];
+                h[1] = f[3].equals("-") ? null : f[3];
+                System.arraycopy(ifaces, 0, h, 2, ifaces.length);
+                idx.entries.put(f[0], new Rec(f[1], h, split(f[5])));
+            }
+            return idx;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("[closure] ignoring unreadable index " + path + " (" + e.getMessage() + ")");
+            return null;
+        }
+    }
+
+    /** Writes the index for class file {@code i} = {@code keys[i]}, {@code stamps[i]}, {@code headers[i]},
+     *  {@code missing[i]}, through a temp file and an atomic rename. */
+    static void write(Path path, String jdkId, List<String> keys, List<String> stamps, String[][] headers,
+                      String[][] missing) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            w.write(FORMAT); w.write('\n');
+            w.write(jdkId); w.write('\n');
+            for (int i = 0; i < keys.size(); i++) {
+                String[] h = headers[i];
+                w.write(keys.get(i) + '\t' + stamps.get(i) + '\t' + h[0] + '\t' + (h[1] == null ? "-" : h[1]) + '\t'
+                        + String.join(",", java.util.Arrays.asList(h).subList(2, h.length)) + '\t'
+                        + String.join(",", missing[i]) + '\n');
+            }
+        }
+        BuildJar.replace(tmp, path);
+    }
+
+    private static String[] split(String list) {
+        return list.isEmpty() ? NONE : list.split(",");
+    }
+}
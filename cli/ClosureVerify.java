@@ -1,22 +1,30 @@
+import org.objectweb.asm.AnnotationVisitor;
 import org.objectweb.asm.ClassReader;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 /**
  * Verifies that a custom android.jar has a closed supertype graph: every class's direct superclass
@@ -32,7 +40,27 @@ import java.util.zip.ZipFile;
  * </ul>
  *
  * <p>The prune algorithm used by {@link BuildJar} lives here too ({@link #hardMissing} +
- * {@link #soakDangling}) so verification and pruning share one definition of "resolvable".
+ * {@link #soakDangling}) so verification and pruning share one definition of "resolvable": in the
+ * jar, or in the {@link JdkIndex} — the running JDK's classes, or with {@code --release N} the Java
+ * N API, listed once per run and cached under {@code --jdk-cache DIR} when given. Both walk a
+ * {@link ClassGraph}: class names interned to int ids, supertype edges as {@code int[]}.
+ *
+ * <p>{@code --deep} also checks every type the members javac can see name — the field types, method
+ * parameter, return and throws types and generic signatures of every non-private, non-synthetic
+ * member of a class that is not anonymous or local (nor nested in one) — since javac fails on those
+ * too once it touches the member. A missing type is hard or soft by the same namespace rule as a
+ * missing supertype. A missing annotation type (on the class, a member or a parameter) is always
+ * soft: javac only warns about it. Loading the classes and the deep check are both spread over
+ * {@code --jobs N} workers (default: one per core).
+ *
+ * <p>{@code --index FILE} keeps a {@link ClosureIndex} of the class graph and each class's result
+ * between runs: the next run reads only the class files whose stamp changed and re-checks those plus
+ * the classes naming one of them as supertype, and reports exactly what a full run would. The deep
+ * check always reads every class.
+ *
+ * <p>{@code ClosureVerify --bench-soak [--depth D] <jar|dir>} times {@link #soakDangling} against
+ * the old pass-per-level fixpoint on the jar's classes plus a synthetic dangling chain {@code D}
+ * classes deep (default 1000), and checks that both remove the same set.
  */
 public final class ClosureVerify {
 
@@ -40,65 +68,253 @@ public final class ClosureVerify {
     private static final String[] FAIL_PREFIXES = { "android/", "dalvik/", "java/", "javax/" };
 
     public static void main(String[] args) throws IOException {
-        if (args.length < 1) { System.err.println("usage: ClosureVerify <jar|dir>"); System.exit(2); return; }
-        Map<String, ClassNode> all = new HashMap<>();
-        Path root = Paths.get(args[0]);
-        if (Files.isDirectory(root)) loadDir(root, all);
-        else loadJar(root, all);
-        System.exit(verify(all) > 0 ? 1 : 0);
+        String path = null, jdkCache = null, indexFile = null;
+        boolean bench = false, deep = false;
+        int depth = 1000, release = 0, jobs = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--bench-soak": bench = true; break;
+                case "--depth":      depth = Integer.parseInt(args[++i]); break;
+                case "--release":    release = Integer.parseInt(args[++i]); break;
+                case "--jdk-cache":  jdkCache = args[++i]; break;
+                case "--index":      indexFile = args[++i]; break;
+                case "--deep":       deep = true; break;
+                case "--jobs":       jobs = Math.max(1, Integer.parseInt(args[++i])); break;
+                default:             path = args[i];
+            }
+        }
+        if (path == null) {
+            System.err.println("usage: ClosureVerify [--release N] [--jdk-cache DIR] [--index FILE] [--deep [--jobs N]] "
+                    + "[--bench-soak [--depth D]] <jar|dir>");
+            System.exit(2);
+            return;
+        }
+        JdkIndex jdk;
+        try { jdk = JdkIndex.load(release, jdkCache == null ? null : Paths.get(jdkCache)); }
+        catch (IllegalArgumentException e) { System.err.println("ClosureVerify: " + e.getMessage()); System.exit(2); return; }
+        System.err.println("[closure] JDK classes: " + jdk.describe());
+        int failures;
+        try (Input in = Input.open(Paths.get(path))) {
+            if (bench) {
+                ClassGraph graph = new ClassGraph();
+                load(in, null, new boolean[in.size()], graph, jobs);
+                benchSoak(graph, depth, jdk);
+                return;
+            }
+            failures = check(in, jdk, indexFile == null ? null : Paths.get(indexFile), deep, jobs);
+        }
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    /** The whole gate over {@code in}: supertypes (through {@code index} when non-null), then with
+     *  {@code deep} member signatures. Returns the number of hard failures reported. */
+    static int check(Input in, JdkIndex jdk, Path index, boolean deep, int jobs) throws IOException {
+        ClosureIndex prev = index == null ? null : ClosureIndex.read(index, jdk.id());
+        ClassGraph graph = new ClassGraph();
+        boolean[] parsed = new boolean[in.size()];
+        String[][] headers = load(in, prev, parsed, graph, jobs);
+        String[][] missing = missing(in, prev, parsed, headers, graph, jdk);
+        int failures = verify(graph, headers, missing);
+        if (index != null) ClosureIndex.write(index, jdk.id(), in.keys, in.stamps, headers, missing);
+        if (deep) failures += verifyDeep(in.size(), in.source, graph, jdk, jobs);
+        return failures;
     }
 
     // ------------------------------------------------------------------ loading
-    private static void loadJar(Path jar, Map<String, ClassNode> all) throws IOException {
-        try (ZipFile z = new ZipFile(jar.toFile())) {
-            Enumeration<? extends ZipEntry> e = z.entries();
-            while (e.hasMoreElements()) {
-                ZipEntry en = e.nextElement();
-                if (!en.getName().endsWith(".class")) continue;
-                try (InputStream in = z.getInputStream(en)) {
-                    ClassNode cn = read(in);
-                    all.put(cn.name, cn);
+    /** Opens class {@code i} of the jar or directory being verified, from any worker thread. */
+    private interface ClassSource {
+        ClassReader open(int i) throws IOException;
+    }
+
+    /** The class files of the jar or directory being verified, in a fixed order, each with a key (entry
+     *  name or relative path) and a stamp that changes whenever its bytes may have. */
+    static final class Input implements AutoCloseable {
+        final List<String> keys = new ArrayList<>();
+        final List<String> stamps = new ArrayList<>();
+        ClassSource source;
+        private RawZip.Reader zip;   // only when opened here, so closed here
+
+        static Input open(Path root) throws IOException {
+            if (Files.isDirectory(root)) {
+                Input in = new Input();
+                List<Path> paths = new ArrayList<>();
+                try (Stream<Path> s = Files.walk(root)) {
+                    s.filter(p -> p.toString().endsWith(".class")).sorted().forEach(paths::add);
                 }
+                for (Path p : paths) {
+                    BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+                    in.keys.add(root.relativize(p).toString().replace(java.io.File.separatorChar, '/'));
+                    in.stamps.add(a.size() + ":" + a.lastModifiedTime().toMillis());
+                }
+                in.source = i -> new ClassReader(Files.readAllBytes(paths.get(i)));
+                return in;
             }
+            RawZip.Reader z = new RawZip.Reader(root);
+            Input in = jar(z);
+            in.zip = z;
+            return in;
         }
-    }
 
-    private static void loadDir(Path dir, Map<String, ClassNode> all) throws IOException {
-        List<Path> paths = new ArrayList<>();
-        try (Stream<Path> s = Files.walk(dir)) {
-            s.filter(p -> p.toString().endsWith(".class")).forEach(paths::add);
-        }
-        for (Path p : paths) {
-            try (InputStream in = Files.newInputStream(p)) {
-                ClassNode cn = read(in);
-                all.put(cn.name, cn);
+        /** The classes of an already open jar, which stays the caller's to close. */
+        static Input jar(RawZip.Reader z) {
+            Input in = new Input();
+            List<RawZip.Entry> classes = new ArrayList<>();
+            for (RawZip.Entry en : z.entries()) {
+                if (!en.name.endsWith(".class")) continue;
+                classes.add(en);
+                in.keys.add(en.name);
+                in.stamps.add(Long.toHexString(en.crc) + ":" + en.size);
             }
+            // The worker's scratch buffer is only reused for its next class, after this one is read.
+            in.source = i -> new ClassReader(z.scratch(classes.get(i)), 0, (int) classes.get(i).size);
+            return in;
+        }
+
+        int size() { return keys.size(); }
+
+        @Override
+        public void close() throws IOException {
+            if (zip != null) zip.close();
         }
     }
 
-    /** Parses a class's header only (no code/frames/debug) — all we need is super + interfaces. */
-    public static ClassNode read(InputStream in) throws IOException {
-        ClassNode cn = new ClassNode();
-        new ClassReader(in).accept(cn, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
-        return cn;
+    // Classes are inflated (jar: from the one shared mapping, into each worker's scratch buffer) and
+    // their headers parsed on `jobs` workers, each into its own slot; the slots are then merged into
+    // the graph on this thread in entry order, so ids — and every report — are the same for any
+    // worker count. Only the headers are kept. A class whose stamp matches `prev` is not read at all:
+    // its header comes from the index.
+    private static String[][] load(Input in, ClosureIndex prev, boolean[] parsed, ClassGraph graph, int jobs)
+            throws IOException {
+        long start = System.nanoTime();
+        int n = in.size();
+        String[][] headers = new String[n][];   // { name, super (may be null), interfaces... }
+        List<Integer> todo = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            ClosureIndex.Rec r = prev == null ? null : prev.entries.get(in.keys.get(i));
+            if (r != null && r.stamp.equals(in.stamps.get(i))) headers[i] = r.header;
+            else { parsed[i] = true; todo.add(i); }
+        }
+        int m = todo.size();
+        AtomicInteger done = new AtomicInteger();
+        int step = Math.max(20_000, m / 10);
+        BuildJar.parallelFor(m, jobs, k -> {
+            int i = todo.get(k);
+            headers[i] = header(in.source.open(i));
+            int d = done.incrementAndGet();
+            if (d % step == 0) System.err.println("[closure] loading: " + d + "/" + m + " classes");
+        });
+        for (String[] h : headers) graph.define(h);
+        System.err.println("[closure] loaded " + n + " class(es)" + (prev == null ? "" : ", " + m + " changed since the index")
+                + " in " + (System.nanoTime() - start) / 1_000_000 + " ms on " + Math.max(1, Math.min(jobs, m)) + " worker(s)");
+        return headers;
+    }
+
+    /** Header straight from the constant pool — {@code { name, super (null for java/lang/Object),
+     *  interfaces... }}, the layout {@link ClosureIndex} stores — for callers that already hold the
+     *  class bytes and keep one header per class of a large jar. */
+    public static String[] header(byte[] bytes) {
+        return header(bytes, bytes.length);
+    }
+
+    /** {@link #header(byte[])} of the class in {@code bytes[0, length)}, e.g. a reused scratch buffer. */
+    public static String[] header(byte[] bytes, int length) {
+        return header(bytes, length, null);
+    }
+
+    /** {@link #header(byte[], int)}; when {@code also} is non-null the same reader then runs it over
+     *  the class without code or debug info — e.g. an {@link Abi.Collector}, so the bytes are inflated
+     *  and parsed once for both. */
+    static String[] header(byte[] bytes, int length, ClassVisitor also) {
+        ClassReader cr = new ClassReader(bytes, 0, length);
+        String[] h = header(cr);
+        if (also != null) cr.accept(also, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return h;
+    }
+
+    static String[] header(ClassReader cr) {
+        return header(cr.getClassName(), cr.getSuperName(), cr.getInterfaces());
+    }
+
+    static String[] header(String name, String superName, String[] interfaces) {
+        int n = interfaces == null ? 0 : interfaces.length;
+        String[] h = new String[2 + n];
+        h[0] = name;
+        h[1] = superName;
+        if (n > 0) System.arraycopy(interfaces, 0, h, 2, n);
+        return h;
     }
 
     // ------------------------------------------------------------------ verify (gate 4)
-    private static int verify(Map<String, ClassNode> all) {
-        ClassLoader jdk = ClassLoader.getSystemClassLoader();
-        Map<String, Boolean> jdkCache = new HashMap<>();
+    /**
+     * Per class file: its direct supertypes that resolve neither in the jar nor in the JDK, in edge
+     * order. Without an index every class is checked. With one, a class whose result can have changed
+     * is one that was read this run, or one naming as supertype a class that was added, removed or
+     * changed since (its old and new name both count) — found through the index's reverse edges;
+     * every other class keeps its recorded result.
+     */
+    private static String[][] missing(Input in, ClosureIndex prev, boolean[] parsed, String[][] headers,
+                                      ClassGraph graph, JdkIndex jdk) {
+        int n = in.size();
+        boolean[] check = new boolean[n];
+        if (prev == null) {
+            Arrays.fill(check, true);
+        } else {
+            Set<String> changed = new HashSet<>();
+            Set<String> seen = new HashSet<>(in.keys);
+            int added = 0, modified = 0, removed = 0;
+            for (int i = 0; i < n; i++) {
+                if (!parsed[i]) continue;
+                check[i] = true;
+                changed.add(headers[i][0]);
+                ClosureIndex.Rec old = prev.entries.get(in.keys.get(i));
+                if (old == null) added++;
+                else { changed.add(old.header[0]); modified++; }
+            }
+            for (Map.Entry<String, ClosureIndex.Rec> e : prev.entries.entrySet()) {
+                if (!seen.contains(e.getKey())) { changed.add(e.getValue().header[0]); removed++; }
+            }
+            Map<String, Integer> position = new HashMap<>(n * 2);
+            for (int i = 0; i < n; i++) position.put(in.keys.get(i), i);
+            for (String name : changed) {
+                for (String key : prev.dependents(name)) {
+                    Integer i = position.get(key);
+                    if (i != null) check[i] = true;
+                }
+            }
+            int rechecked = 0;
+            for (boolean c : check) if (c) rechecked++;
+            System.err.println("[closure] incremental: " + modified + " changed, " + added + " added, " + removed
+                    + " removed since the index; re-checking " + rechecked + " of " + n + " classes");
+        }
+        String[][] missing = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (!check[i]) { missing[i] = prev.entries.get(in.keys.get(i)).missing; continue; }
+            String[] h = headers[i];
+            List<String> bad = new ArrayList<>(0);
+            for (int k = 1; k < h.length; k++) {
+                if (h[k] != null && !graph.isDefined(h[k]) && !jdk.contains(h[k])) bad.add(h[k]);
+            }
+            missing[i] = bad.toArray(new String[0]);
+        }
+        return missing;
+    }
+
+    private static int verify(ClassGraph graph, String[][] headers, String[][] missing) {
+        // A class defined by several files reports only the last one's edges, as the graph keeps them.
+        int[] file = new int[graph.size()];
+        for (int i = 0; i < headers.length; i++) file[graph.intern(headers[i][0])] = i;
         List<String> hard = new ArrayList<>();
         TreeMap<String, Integer> soft = new TreeMap<>();
-        for (ClassNode cn : all.values()) {
-            for (String r : supers(cn)) {
-                if (all.containsKey(r) || jdkLoadable(r, jdk, jdkCache)) continue;
-                if (isHardNs(r)) { if (hard.size() < 50) hard.add(cn.name + "  ->  " + r); }
-                else soft.merge(namespace(r), 1, Integer::sum);
+        for (int id = 0; id < graph.size(); id++) {
+            if (!graph.isDefined(id)) continue;
+            for (String name : missing[file[id]]) {
+                if (isHardNs(name)) { if (hard.size() < 50) hard.add(graph.name(id) + "  ->  " + name); }
+                else soft.merge(namespace(name), 1, Integer::sum);
             }
         }
         int softN = 0;
         for (int v : soft.values()) softN += v;
-        System.err.println("[closure] scanned " + all.size() + " classes: "
+        System.err.println("[closure] scanned " + graph.defined() + " classes: "
                 + hard.size() + " hard, " + softN + " soft (intentionally-dropped internals)");
         if (softN > 0) System.err.println("[closure] soft (ok): " + join(soft));
         if (!hard.isEmpty()) {
@@ -110,20 +326,197 @@ public final class ClosureVerify {
         return 0;
     }
 
+    // ------------------------------------------------------------------ deep (--deep)
+    private static int verifyDeep(int n, ClassSource source, ClassGraph graph, JdkIndex jdk, int jobs) throws IOException {
+        long start = System.nanoTime();
+        String[][] missing = new String[n][];       // per class: "<member>\t<type>" for each unresolved type
+        String[][] annotations = new String[n][];   // the same for annotation types, soft whatever their namespace
+        boolean[] unnamed = new boolean[n];
+        BuildJar.parallelFor(n, jobs, i -> {
+            MemberTypes m = memberTypes(source.open(i));
+            if (m == null) { unnamed[i] = true; return; }
+            missing[i] = unresolved(m.types, graph, jdk);
+            annotations[i] = unresolved(m.annotations, graph, jdk);
+        });
+        List<String> hard = new ArrayList<>();
+        TreeMap<String, Integer> soft = new TreeMap<>(), softAnnotations = new TreeMap<>();
+        int hardN = 0, skipped = 0;
+        for (int i = 0; i < n; i++) {
+            if (unnamed[i]) { skipped++; continue; }
+            for (String b : missing[i]) {
+                int tab = b.indexOf('\t');
+                String t = b.substring(tab + 1);
+                if (isHardNs(t)) { hardN++; if (hard.size() < 50) hard.add(b.substring(0, tab) + "  ->  " + t); }
+                else soft.merge(namespace(t), 1, Integer::sum);
+            }
+            for (String b : annotations[i]) {
+                softAnnotations.merge(namespace(b.substring(b.indexOf('\t') + 1)), 1, Integer::sum);
+            }
+        }
+        int softN = 0;
+        for (int v : soft.values()) softN += v;
+        for (int v : softAnnotations.values()) softN += v;
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.err.println("[closure] deep: checked member signatures of " + (n - skipped) + " classes (" + skipped
+                + " anonymous/local/synthetic skipped) on " + Math.min(jobs, Math.max(1, n))
+                + " worker(s) in " + ms + " ms: " + hardN + " hard, " + softN + " soft");
+        if (!soft.isEmpty()) System.err.println("[closure] deep soft (ok): " + join(soft));
+        if (!softAnnotations.isEmpty()) {
+            System.err.println("[closure] deep soft (ok, javac only warns): annotation types " + join(softAnnotations));
+        }
+        if (hardN > 0) {
+            System.err.println("[closure] deep HARD FAIL — member signatures name public types missing from the jar:");
+            for (String s : hard) System.err.println("[closure]   " + s);
+            return hardN;
+        }
+        System.err.println("[closure] deep OK — every public type named by a member signature resolves");
+        return 0;
+    }
+
+    /** The {@code "<member>\t<type>"} pairs of {@code types} whose type resolves neither in the jar
+     *  nor in the JDK. */
+    private static String[] unresolved(Map<String, Set<String>> types, ClassGraph graph, JdkIndex jdk) {
+        List<String> bad = new ArrayList<>();
+        for (Map.Entry<String, Set<String>> m : types.entrySet()) {
+            for (String t : m.getValue()) {
+                if (!graph.isDefined(t) && !jdk.contains(t)) bad.add(m.getKey() + '\t' + t);
+            }
+        }
+        return bad.toArray(new String[0]);
+    }
+
+    /** Per member ({@code Class}, {@code Class.field}, {@code Class.method(desc)}): the internal names of
+     *  the classes it names, split by what javac does when one is missing. */
+    static final class MemberTypes {
+        final Map<String, Set<String>> types = new LinkedHashMap<>();        // descriptor, signature, throws: an error
+        final Map<String, Set<String>> annotations = new LinkedHashMap<>();  // annotation types: a warning
+    }
+
+    /**
+     * The {@link MemberTypes} of the members javac can see — neither private nor synthetic — or null
+     * for a class javac cannot name from outside: a synthetic class, or one whose InnerClasses chain
+     * reaches an anonymous or local class (a record with no outer class).
+     */
+    static MemberTypes memberTypes(ClassReader cr) {
+        MemberTypes out = new MemberTypes();
+        String owner = cr.getClassName();
+        Map<String, String> outer = new HashMap<>();   // InnerClasses: class -> outer class, "" if none
+        boolean[] synthetic = new boolean[1];
+        cr.accept(new ClassVisitor(Opcodes.ASM9) {
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName,
+                              String[] interfaces) {
+                synthetic[0] = (access & Opcodes.ACC_SYNTHETIC) != 0;
+                addSignature(types(out.types, owner), signature);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                addDesc(types(out.annotations, owner), desc);
+                return null;
+            }
+
+            @Override
+            public void visitInnerClass(String name, String outerName, String innerName, int access) {
+                outer.put(name, outerName == null ? "" : outerName);
+            }
+
+            @Override
+            public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+                if (!visible(access)) return null;
+                Set<String> t = types(out.types, owner + "." + name);
+                addDesc(t, desc);
+                addSignature(t, signature);
+                Set<String> a = types(out.annotations, owner + "." + name);
+                return new FieldVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String d, boolean visible) { addDesc(a, d); return null; }
+                };
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                if (!visible(access)) return null;
+                Set<String> t = types(out.types, owner + "." + name + desc);
+                Type m = Type.getMethodType(desc);
+                addDesc(t, m.getReturnType().getDescriptor());
+                for (Type arg : m.getArgumentTypes()) addDesc(t, arg.getDescriptor());
+                addSignature(t, signature);
+                if (exceptions != null) t.addAll(Arrays.asList(exceptions));
+                Set<String> a = types(out.annotations, owner + "." + name + desc);
+                return new MethodVisitor(Opcodes.ASM9) {
+                    @Override
+                    public AnnotationVisitor visitAnnotation(String d, boolean visible) { addDesc(a, d); return null; }
+
+                    @Override
+                    public AnnotationVisitor visitParameterAnnotation(int parameter, String d, boolean visible) {
+                        addDesc(a, d);
+                        return null;
+                    }
+                };
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        if (synthetic[0]) return null;
+        // Bounded walk: a malformed, cyclic InnerClasses attribute must not loop forever.
+        String c = owner;
+        for (int hops = 0; hops <= outer.size(); hops++) {
+            String o = outer.get(c);
+            if (o == null) break;          // c is top-level, or has no record here
+            if (o.isEmpty()) return null;  // c is anonymous or local
+            c = o;
+        }
+        return out;
+    }
+
+    private static boolean visible(int access) {
+        return (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)) == 0;
+    }
+
+    private static Set<String> types(Map<String, Set<String>> out, String member) {
+        return out.computeIfAbsent(member, k -> new HashSet<>());
+    }
+
+    private static void addDesc(Set<String> types, String desc) {
+        Type t = Type.getType(desc);
+        if (t.getSort() == Type.ARRAY) t = t.getElementType();
+        if (t.getSort() == Type.OBJECT) types.add(t.getInternalName());
+    }
+
+    private static void addSignature(Set<String> types, String signature) {
+        if (signature == null) return;
+        // Type arguments nest class types (visitClassType ... visitEnd), so the enclosing name of an
+        // inner class type (Outer<T>.Inner) is the top of a stack, not the last class type seen.
+        ArrayDeque<String> open = new ArrayDeque<>();
+        new SignatureReader(signature).accept(new SignatureVisitor(Opcodes.ASM9) {
+            @Override
+            public void visitClassType(String name) { open.push(name); types.add(name); }
+
+            @Override
+            public void visitInnerClassType(String name) {
+                String inner = open.pop() + "$" + name;
+                open.push(inner);
+                types.add(inner);
+            }
+
+            @Override
+            public void visitEnd() { open.pop(); }
+        });
+    }
+
     // ------------------------------------------------------------------ shared prune algorithm
     /**
      * Guard phase: public-surface supertypes ({@code android/dalvik/java/javax}) that are missing.
      * A non-empty result means a genuine regression — the caller must abort rather than prune, or
      * pruning would silently delete real public API and mask the issue-#100 bug.
      */
-    public static List<String> hardMissing(Map<String, ClassNode> all) {
-        ClassLoader jdk = ClassLoader.getSystemClassLoader();
-        Map<String, Boolean> jdkCache = new HashMap<>();
+    public static List<String> hardMissing(ClassGraph graph, JdkIndex jdk) {
+        boolean[] jdkHas = graph.inJdk(jdk);
         List<String> hard = new ArrayList<>();
-        for (ClassNode cn : all.values()) {
-            for (String r : supers(cn)) {
-                if (all.containsKey(r) || jdkLoadable(r, jdk, jdkCache)) continue;
-                if (isHardNs(r) && hard.size() < 50) hard.add(cn.name + "  ->  " + r);
+        for (int id = 0; id < graph.size(); id++) {
+            if (!graph.isDefined(id)) continue;
+            for (int r : graph.supers(id)) {
+                if (graph.isDefined(r) || jdkHas[r]) continue;
+                if (isHardNs(graph.name(r)) && hard.size() < 50) hard.add(graph.name(id) + "  ->  " + graph.name(r));
             }
         }
         return hard;
@@ -136,54 +529,106 @@ public final class ClosureVerify {
      * after {@link #hardMissing} is empty, so every removal is rooted in an intentionally-dropped
      * namespace, never in a real public-surface hole.
      */
-    public static Set<String> soakDangling(Map<String, ClassNode> all) {
-        ClassLoader jdk = ClassLoader.getSystemClassLoader();
-        Map<String, Boolean> jdkCache = new HashMap<>();
-        Set<String> present = new HashSet<>(all.keySet());
+    public static Set<String> soakDangling(ClassGraph graph, JdkIndex jdk) {
+        // One pass builds the reverse edge index (supertype -> direct subtypes defined in the jar, as
+        // one flat int[] sliced by `start`) and seeds the worklist with every class that has an
+        // unresolvable direct supertype. Removing a class then dangles exactly its direct subtypes, so
+        // each class and edge is visited once: O(classes + edges), however deep the chains run.
+        int n = graph.size();
+        boolean[] jdkHas = graph.inJdk(jdk);
+        int[] start = new int[n + 1];
+        for (int id = 0; id < n; id++) {
+            if (graph.isDefined(id)) for (int r : graph.supers(id)) if (graph.isDefined(r) && !jdkHas[r]) start[r + 1]++;
+        }
+        for (int id = 0; id < n; id++) start[id + 1] += start[id];
+        int[] subtypes = new int[start[n]];
+        int[] fill = Arrays.copyOf(start, n);
+        boolean[] removed = new boolean[n];
+        int[] work = new int[n];
+        int head = 0, tail = 0;
+        for (int id = 0; id < n; id++) {
+            if (!graph.isDefined(id)) continue;
+            boolean dangling = false;
+            for (int r : graph.supers(id)) {
+                if (jdkHas[r]) continue;   // resolves even if the jar's copy goes
+                if (graph.isDefined(r)) subtypes[fill[r]++] = id;
+                else dangling = true;
+            }
+            if (dangling && !removed[id]) { removed[id] = true; work[tail++] = id; }
+        }
+        while (head < tail) {
+            int x = work[head++];
+            for (int k = start[x]; k < start[x + 1]; k++) {
+                int s = subtypes[k];
+                if (!removed[s]) { removed[s] = true; work[tail++] = s; }
+            }
+        }
+        Set<String> names = new HashSet<>(tail * 2);
+        for (int k = 0; k < tail; k++) names.add(graph.name(work[k]));
+        return names;
+    }
+
+    /** The pass-per-level fixpoint {@link #soakDangling} replaced: O(depth x classes). Kept only as
+     *  the {@code --bench-soak} baseline and cross-check. */
+    private static Set<String> soakDanglingFixpoint(ClassGraph graph, JdkIndex jdk) {
+        int n = graph.size();
+        boolean[] jdkHas = graph.inJdk(jdk);
+        boolean[] present = new boolean[n];
+        for (int id = 0; id < n; id++) present[id] = graph.isDefined(id);
         Set<String> removed = new HashSet<>();
         boolean changed = true;
         while (changed) {
             changed = false;
-            List<String> drop = new ArrayList<>();
-            for (String name : present) {
-                for (String r : supers(all.get(name))) {
-                    if (present.contains(r) || jdkLoadable(r, jdk, jdkCache)) continue;
-                    drop.add(name);
+            List<Integer> drop = new ArrayList<>();
+            for (int id = 0; id < n; id++) {
+                if (!present[id]) continue;
+                for (int r : graph.supers(id)) {
+                    if (present[r] || jdkHas[r]) continue;
+                    drop.add(id);
                     break;
                 }
             }
-            if (!drop.isEmpty()) {
-                present.removeAll(drop);
-                removed.addAll(drop);
-                changed = true;
-            }
+            for (int id : drop) { present[id] = false; removed.add(graph.name(id)); }
+            changed = !drop.isEmpty();
         }
         return removed;
     }
 
-    // ------------------------------------------------------------------ helpers
-    private static List<String> supers(ClassNode cn) {
-        List<String> r = new ArrayList<>();
-        if (cn.superName != null) r.add(cn.superName);
-        if (cn.interfaces != null) r.addAll(cn.interfaces);
-        return r;
+    // ------------------------------------------------------------------ benchmark
+    private static void benchSoak(ClassGraph graph, int depth, JdkIndex jdk) {
+        // A chain rooted in a missing supertype: the fixpoint needs one full pass per link.
+        String prev = "bench/Missing";
+        for (int i = 0; i < depth; i++) {
+            graph.define("bench/Chain" + i, prev, null);
+            prev = "bench/Chain" + i;
+        }
+        Set<String> fast = null, slow = null;
+        long bestFast = Long.MAX_VALUE, bestSlow = Long.MAX_VALUE;
+        for (int run = 0; run < 3; run++) {
+            long t0 = System.nanoTime();
+            fast = soakDangling(graph, jdk);
+            long t1 = System.nanoTime();
+            slow = soakDanglingFixpoint(graph, jdk);
+            long t2 = System.nanoTime();
+            bestFast = Math.min(bestFast, t1 - t0);
+            bestSlow = Math.min(bestSlow, t2 - t1);
+        }
+        System.err.println("[closure] bench: " + graph.defined() + " classes (" + depth + "-deep synthetic dangling chain), "
+                + fast.size() + " removed");
+        System.err.println("[closure] bench: worklist " + (bestFast / 1_000_000) + " ms, fixpoint "
+                + (bestSlow / 1_000_000) + " ms (best of 3)" + (bestFast > 0 ? ", " + (bestSlow / bestFast) + "x" : ""));
+        if (!fast.equals(slow)) {
+            System.err.println("[closure] bench: MISMATCH — worklist and fixpoint removed different sets");
+            System.exit(1);
+        }
     }
 
+    // ------------------------------------------------------------------ helpers
     private static boolean isHardNs(String internalName) {
         for (String p : FAIL_PREFIXES) if (internalName.startsWith(p)) return true;
         return false;
     }
 
-    private static boolean jdkLoadable(String internalName, ClassLoader jdk, Map<String, Boolean> cache) {
-        Boolean b = cache.get(internalName);
-        if (b != null) return b;
-        boolean ok;
-        try { Class.forName(internalName.replace('/', '.'), false, jdk); ok = true; }
-        catch (Throwable t) { ok = false; }
-        cache.put(internalName, ok);
-        return ok;
-    }
-
     private static String namespace(String internalName) {
         String[] p = internalName.split("/");
         return p.length >= 2 ? p[0] + "/" + p[1] : p[0];
@@ -0,0 +1,135 @@
+import com.googlecode.d2j.dex.Dex2jar;
+import com.googlecode.d2j.reader.BaseDexFileReader;
+import com.googlecode.d2j.reader.MultiDexFileReader;
+import com.googlecode.dex2jar.tools.BaksmaliBaseDexExceptionHandler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Converts the pulled boot jars' DEX to class stores inside one JVM, calling the dex-tools library
+ * ({@code Dex2jar}) directly instead of starting {@code d2j-dex2jar.sh} — a fresh JVM with a cold
+ * JIT — once per jar. The conversion is the one {@code d2j-dex2jar.sh --force -o <out> <in>} does
+ * with its default options (no debug info, registers not reused, topological sort), on {@code --jobs}
+ * worker threads (default: one per core) that stay warm across jars.
+ *
+ * <p>Jobs arrive on stdin, one tab-separated line per jar as it is pulled, so conversions overlap
+ * with the pulls still running: {@code <status file> <progress tag> <device path> <in.jar> <out.jar>
+ * <dex count>}. Each finished job writes {@code converted} or {@code failed} to its status file — the
+ * script's per-jar accounting — and logs one line. Every jar converts to its own output independently,
+ * so the outputs are the same for any worker count and completion order. The output is written next
+ * to its final name and renamed into place, so a failed conversion never leaves a partial jar.
+ *
+ * <p>The output only lives until {@link BuildJar} overlays it, so it is not compressed: every class is
+ * STORED in a zip-layout store that BuildJar memory-maps and reads in place, instead of being deflated
+ * here and inflated again there. A zip rather than a directory of class files, because a directory
+ * would lose one of two classes whose names differ only in case on macOS/Windows (see BuildJar). The
+ * store is assembled in this JVM's heap and written once; a jar whose classes would not fit in a
+ * worker's share of the heap spills each class to a temp file as it is converted instead.
+ *
+ * <p>Usage: {@code DexConvert [--jobs N] < jobs.tsv}. Exit 0 once every job has a status, however
+ * many failed.
+ */
+public final class DexConvert {
+
+    // Uncompressed class bytes per byte of the pulled (compressed) boot jar, generously: what decides
+    // whether a conversion's store is held in the heap or spilled.
+    private static final int CLASS_BYTES_PER_JAR_BYTE = 8;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--jobs": jobs = Math.max(1, Integer.parseInt(args[++i])); break;
+                default:
+                    System.err.println("usage: DexConvert [--jobs N] < jobs.tsv");
+                    System.exit(2);
+                    return;
+            }
+        }
+        long start = System.nanoTime();
+        long heapShare = Runtime.getRuntime().maxMemory() / jobs;
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        List<Future<?>> pending = new ArrayList<>();
+        AtomicInteger converted = new AtomicInteger(), failed = new AtomicInteger();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                String[] f = line.split("\t", -1);
+                if (f.length != 6) {
+                    System.err.println("[convert] ignoring malformed job: " + line);
+                    continue;
+                }
+                pending.add(pool.submit(() -> {
+                    String error = convert(Paths.get(f[3]), Paths.get(f[4]), heapShare);
+                    boolean ok = error == null;
+                    if (ok) System.err.println("[convert] " + f[1] + " converted (" + f[5] + " dex): " + f[2]);
+                    else System.err.println("[convert] " + f[1] + " dex2jar failed: " + f[2] + " (" + error + ")");
+                    (ok ? converted : failed).incrementAndGet();
+                    Files.write(Paths.get(f[0]), (ok ? "converted\n" : "failed\n").getBytes(StandardCharsets.UTF_8));
+                    return null;
+                }));
+            }
+        }
+        pool.shutdown();
+        for (Future<?> p : pending) {
+            try {
+                p.get();
+            } catch (ExecutionException e) {
+                // Only the status write can fail here; the script counts a jar without a status as failed.
+                System.err.println("[convert] " + e.getCause());
+            }
+        }
+        System.err.println("[convert] " + converted.get() + " converted, " + failed.get() + " failed in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms on " + Math.max(1, Math.min(jobs, pending.size()))
+                + " worker(s), one JVM");
+    }
+
+    /** Converts every classes*.dex of {@code in} into the STORED class store {@code out}, spilling to
+     *  temp files when its classes could outgrow {@code heapShare} bytes; returns null on success, else
+     *  why it failed. A method dex2jar cannot translate does not fail the jar — as with the
+     *  command-line tool, it comes out as a stub that throws. */
+    static String convert(Path in, Path out, long heapShare) {
+        Path tmp = out.resolveSibling(out.getFileName() + ".tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            byte[] dex = Files.readAllBytes(in);
+            BaseDexFileReader reader = MultiDexFileReader.open(dex);
+            BaksmaliBaseDexExceptionHandler handler = new BaksmaliBaseDexExceptionHandler();
+            Map<String, String> env = new HashMap<>();
+            env.put("create", "true");
+            env.put("noCompression", "true");
+            if ((long) dex.length * CLASS_BYTES_PER_JAR_BYTE > heapShare) env.put("useTempFile", "true");
+            // Dex2jar writes class files under a directory it is given: the store's root.
+            try (FileSystem store = FileSystems.newFileSystem(new URI("jar", tmp.toUri().toString(), null), env)) {
+                Dex2jar.from(reader).withExceptionHandler(handler).reUseReg(false).topoLogicalSort().skipDebug(true)
+                        .optimizeSynchronized(false).printIR(false).noCode(false).skipExceptions(false)
+                        .to(store.getPath("/"));
+            }
+            if (!Files.isRegularFile(tmp)) return "no output";
+            BuildJar.replace(tmp, out);
+            return null;
+        } catch (Exception | StackOverflowError e) {
+            try { Files.deleteIfExists(tmp); } catch (IOException ignored) { }
+            return e.toString();
+        }
+    }
+
+    private DexConvert() {}
+}
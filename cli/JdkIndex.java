@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * The set of class names a JDK provides, for deciding whether a supertype missing from the jar
+ * still resolves — the question {@link ClosureVerify}'s gate and {@link BuildJar}'s prune both ask.
+ *
+ * <p>Why not {@code Class.forName}: probing loads (and keeps) every class it finds in the tool's own
+ * JVM, costs a failed class-path search per miss, and answers for whichever JDK happens to run the
+ * script. Here the names are listed once: from the running JDK's {@code jrt:/} image, or — with a
+ * release number — from {@code lib/ct.sym}, the per-release API signatures javac's {@code --release}
+ * compiles against, so the answer matches the Java level the app actually targets.
+ *
+ * <p>Listing {@code jrt:/} walks every module, so the result can be cached on disk: one text file
+ * per JDK build and release under the cache directory, written through a temp file and an atomic
+ * rename. As with {@link StubCache}, every cache problem is a miss, never a failure.
+ */
+final class JdkIndex {
+
+    /** Bump whenever the cached file's content or layout changes. */
+    static final String FORMAT = "jdk-index-v1";
+
+    private final Set<String> names;   // internal names, e.g. java/lang/Object
+    private final String source;
+    private final String key;
+
+    private JdkIndex(Set<String> names, String source, String key) {
+        this.names = names;
+        this.source = source;
+        this.key = key;
+    }
+
+    /**
+     * Classes of {@code release} (0 = the running JDK, whatever its version) as this JDK knows them,
+     * through the cache in {@code cacheDir} when non-null. A release older or newer than this JDK
+     * can target is an {@link IllegalArgumentException}.
+     */
+    static JdkIndex load(int release, Path cacheDir) throws IOException {
+        int feature = Runtime.version().feature();
+        if (release == feature) release = 0;
+        String jdk = System.getProperty("java.runtime.version", String.valueOf(feature));
+        String key = (release == 0 ? "jrt" : "release-" + release) + "-" + jdk.replaceAll("[^A-Za-z0-9._-]", "_");
+        String source = release == 0 ? "JDK " + jdk + " (jrt:/)" : "Java " + release + " API (ct.sym of JDK " + jdk + ")";
+        Path cached = cacheDir == null ? null : cacheDir.resolve(key + ".txt");
+        if (cached != null) {
+            Set<String> names = read(cached);
+            if (names != null) return new JdkIndex(names, source + ", cached", key);
+        }
+        Set<String> names = release == 0 ? listJrt() : listCtSym(release);
+        if (cached != null) write(cached, names);
+        return new JdkIndex(names, source, key);
+    }
+
+    boolean contains(String internalName) { return names.contains(internalName); }
+
+    /** One line for the tool's log: where the names came from and how many. */
+    String describe() { return source + ", " + names.size() + " classes"; }
+
+    /** Which JDK build and release this lists, e.g. {@code jrt-17.0.9_9}: the same id lists the same
+     *  names, so results derived from them can be kept across runs. */
+    String id() { return key; }
+
+    // ------------------------------------------------------------------ listing
+    private static Set<String> listJrt() throws IOException {
+        Set<String> names = new HashSet<>(1 << 15);
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        try (DirectoryStream<Path> modules = Files.newDirectoryStream(jrt.getPath("/modules"))) {
+            for (Path module : modules) {
+                try (Stream<Path> s = Files.walk(module)) {
+                    s.forEach(p -> {
+                        String n = module.relativize(p).toString();
+                        if (n.endsWith(".class") && !n.endsWith("module-info.class")) {
+                            names.add(n.substring(0, n.length() - ".class".length()));
+                        }
+                    });
+                }
+            }
+        }
+        return names;
+    }
+
+    // ct.sym entries are <releases>/<module>/<package path>/<Class>.sig, where <releases> lists every
+    // release (one base-36 digit each: 8, 9, A = 10, ...) that shares the file. The running JDK's own
+    // release is not in it — javac reads that from jrt:/ too.
+    private static Set<String> listCtSym(int release) throws IOException {
+        Path ctSym = Paths.get(System.getProperty("java.home"), "lib", "ct.sym");
+        if (release < 0 || release > 35 || !Files.isRegularFile(ctSym)) {
+            throw new IllegalArgumentException("--release " + release + " is not supported by this JDK");
+        }
+        char tag = Character.toUpperCase(Character.forDigit(release, 36));
+        Set<String> names = new HashSet<>(1 << 15);
+        try (RawZip.Reader z = new RawZip.Reader(ctSym)) {
+            for (RawZip.Entry e : z.entries()) {
+                if (!e.name.endsWith(".sig")) continue;
+                int rel = e.name.indexOf('/'), mod = e.name.indexOf('/', rel + 1);
+                if (rel < 0 || mod < 0 || e.name.lastIndexOf(tag, rel) < 0) continue;
+                names.add(e.name.substring(mod + 1, e.name.length() - ".sig".length()));
+            }
+        }
+        if (names.isEmpty()) throw new IllegalArgumentException("--release " + release + " is not supported by this JDK");
+        return names;
+    }
+
+    // ------------------------------------------------------------------ cache
+    private static Set<String> read(Path file) {
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty() || !FORMAT.equals(lines.get(0))) return null;
+            return new HashSet<>(lines.subList(1, lines.size()));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static void write(Path file, Set<String> names) {
+        try {
+            Files.createDirectories(file.getParent());
+            List<String> lines = new ArrayList<>(names.size() + 1);
+            lines.add(FORMAT);
+            List<String> sorted = new ArrayList<>(names);
+            Collections.sort(sorted);
+            lines.addAll(sorted);
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, lines, StandardCharsets.UTF_8);
+                BuildJar.replace(tmp, file);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException ignored) {
+            // Unwritable cache: the next run lists the JDK again.
+        }
+    }
+}
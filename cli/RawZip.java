@@ -0,0 +1,389 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Just enough of the zip format to move entries between jars WITHOUT recompressing them.
+ *
+ * <p>Why: {@code java.util.zip} hides an entry's compressed bytes — {@code ZipFile} only hands out an
+ * inflating stream and {@code ZipOutputStream} always deflates what it is given. Most of the custom
+ * jar is base-SDK entries that {@link BuildJar} writes out unchanged, so inflating and re-deflating
+ * them was pure overhead. {@link Reader} parses the central directory itself and returns an entry's
+ * raw (still-compressed) bytes; {@link Writer} appends either such raw bytes (with the CRC and sizes
+ * from the source directory) or fresh bytes it deflates. Both handle ZIP64, which a full
+ * boot-classpath jar (well over 65535 entries) needs. The reader memory-maps the jar and inflates
+ * with per-thread Inflaters, so reading the ~50 boot jars churns neither the heap nor native zlib
+ * state.
+ *
+ * <p>Compression is split from writing: {@link #pack} deflates (or stores) one entry and is safe to
+ * call from many threads, so callers pack a window of entries in parallel and the single-threaded
+ * writer only appends them in order — the output bytes do not depend on the thread count.
+ *
+ * <p>Only what jars use is supported: STORED/DEFLATED, a single disk, no encryption. The writer emits
+ * the same fixed 1980-01-01 DOS timestamp {@code ZipEntry.setTime(0L)} produced, and sizes in the
+ * local header (no data descriptors), so output stays deterministic.
+ */
+final class RawZip {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOC_SIG = 0x04034b50, CEN_SIG = 0x02014b50, END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50, ZIP64_LOC_SIG = 0x07064b50;
+    private static final int LOC_HDR = 30, CEN_HDR = 46, END_HDR = 22;
+    private static final int DOS_DATE_1980 = 0x21;   // 1980-01-01, what setTime(0L) turns into
+    private static final int FLAG_UTF8 = 0x800;
+    private static final long MAX32 = 0xFFFFFFFFL;
+
+    // Per-thread codecs and scratch space, reused across entries (the JDK's cleaner frees a codec's
+    // native memory once its daemon worker thread is gone).
+    private static final ThreadLocal<Deflater> DEFLATER =
+            ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[1 << 16]);
+
+    /** One central-directory record: where the entry's local header is and how it is compressed. */
+    static final class Entry {
+        final String name;
+        final int method;
+        final long crc, csize, size, offset;
+
+        Entry(String name, int method, long crc, long csize, long size, long offset) {
+            this.name = name; this.method = method; this.crc = crc;
+            this.csize = csize; this.size = size; this.offset = offset;
+        }
+
+        boolean isDirectory() { return name.endsWith("/"); }
+    }
+
+    /** An entry compressed by {@link #pack}, ready for {@link Writer#add}. */
+    static final class Packed {
+        final Entry entry;   // offset unused
+        final byte[] raw;
+
+        Packed(Entry entry, byte[] raw) { this.entry = entry; this.raw = raw; }
+    }
+
+    /**
+     * Compresses {@code data} for output: DEFLATED at the default level (what ZipOutputStream used)
+     * or STORED as-is. Thread-safe — each thread reuses its own Deflater.
+     */
+    static Packed pack(String name, byte[] data, int method) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        byte[] raw = method == STORED ? data : deflate(data);
+        return new Packed(new Entry(name, method, crc.getValue(), raw.length, data.length, -1), raw);
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream bo = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+        byte[] buf = new byte[8192];
+        while (!deflater.finished()) bo.write(buf, 0, deflater.deflate(buf));
+        return bo.toByteArray();
+    }
+
+    // ------------------------------------------------------------------ reading
+    /**
+     * Random-access reader over one zip, safe to share across threads. The file is memory-mapped, so
+     * an entry's compressed bytes are a {@link ByteBuffer} slice of the page cache rather than a heap
+     * copy, and inflation reads straight from that slice. Files over 2 GB, and callers that are about
+     * to replace the file (a mapping pins it on Windows until GC), fall back to positional reads.
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer map;   // little-endian, whole file; null when not mapped
+        private final List<Entry> entries;
+
+        Reader(Path zip) throws IOException { this(zip, true); }
+
+        Reader(Path zip, boolean mmap) throws IOException {
+            ch = FileChannel.open(zip, StandardOpenOption.READ);
+            try {
+                long len = ch.size();
+                map = mmap && len <= Integer.MAX_VALUE
+                        ? ch.map(FileChannel.MapMode.READ_ONLY, 0, len).order(ByteOrder.LITTLE_ENDIAN) : null;
+                entries = Collections.unmodifiableList(readCentralDirectory(zip));
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        /** Entries in central-directory order (directories included). */
+        List<Entry> entries() { return entries; }
+
+        /** The entry's bytes exactly as stored in the zip (compressed when {@code method} is DEFLATED),
+         *  as a read-only slice: no copy when mapped. */
+        ByteBuffer rawBuffer(Entry e) throws IOException {
+            ByteBuffer loc = read(e.offset, LOC_HDR);
+            if (loc.getInt(0) != LOC_SIG) throw new ZipException("bad local header: " + e.name);
+            long data = e.offset + LOC_HDR + u16(loc, 26) + u16(loc, 28);
+            return view(data, checkedSize(e.csize, e.name));
+        }
+
+        /** The entry's stored bytes as a fresh array. */
+        byte[] raw(Entry e) throws IOException {
+            ByteBuffer b = rawBuffer(e);
+            byte[] out = new byte[b.remaining()];
+            b.get(out);
+            return out;
+        }
+
+        /** The entry's uncompressed bytes, in a fresh array the caller owns. */
+        byte[] bytes(Entry e) throws IOException {
+            byte[] out = new byte[checkedSize(e.size, e.name)];
+            inflate(e, out);
+            return out;
+        }
+
+        /**
+         * The entry's uncompressed bytes in this thread's scratch buffer (valid length {@code e.size}),
+         * for callers that only parse them: no per-entry allocation. The buffer is overwritten by the
+         * thread's next call, so nothing may keep a reference to it.
+         */
+        byte[] scratch(Entry e) throws IOException {
+            int n = checkedSize(e.size, e.name);
+            byte[] b = SCRATCH.get();
+            if (b.length < n) SCRATCH.set(b = new byte[Math.max(n, b.length * 2)]);
+            inflate(e, b);
+            return b;
+        }
+
+        private void inflate(Entry e, byte[] out) throws IOException {
+            ByteBuffer raw = rawBuffer(e);
+            int size = (int) e.size;
+            if (e.method == STORED) {
+                if (raw.remaining() != size) throw new ZipException("bad stored size: " + e.name);
+                raw.get(out, 0, size);
+                return;
+            }
+            if (e.method != DEFLATED) throw new ZipException("unsupported method " + e.method + ": " + e.name);
+            Inflater inf = INFLATER.get();
+            inf.reset();
+            try {
+                inf.setInput(raw);
+                int n = 0;
+                while (n < size) {
+                    int r = inf.inflate(out, n, size - n);
+                    if (r == 0 && (inf.finished() || inf.needsInput() || inf.needsDictionary())) break;
+                    n += r;
+                }
+                if (n != size) throw new ZipException("truncated entry: " + e.name);
+            } catch (DataFormatException x) {
+                throw new ZipException("corrupt entry " + e.name + ": " + x.getMessage());
+            }
+        }
+
+        /** Closes the file. A mapping stays valid until it is garbage-collected (Java cannot unmap). */
+        @Override public void close() throws IOException { ch.close(); }
+
+        private List<Entry> readCentralDirectory(Path zip) throws IOException {
+            long len = ch.size();
+            int tail = (int) Math.min(len, END_HDR + 0xFFFF);
+            ByteBuffer t = read(len - tail, tail);
+            int end = -1;
+            for (int i = tail - END_HDR; i >= 0; i--) {
+                if (t.getInt(i) == END_SIG) { end = i; break; }
+            }
+            if (end < 0) throw new ZipException("not a zip (no end of central directory): " + zip);
+            long count = u16(t, end + 10), cenSize = u32(t, end + 12), cenOff = u32(t, end + 16);
+            if (count == 0xFFFF || cenSize == MAX32 || cenOff == MAX32) {
+                long locPos = len - tail + end - 20;
+                ByteBuffer loc = locPos >= 0 ? read(locPos, 20) : null;
+                if (loc != null && loc.getInt(0) == ZIP64_LOC_SIG) {
+                    ByteBuffer z = read(loc.getLong(8), 56);
+                    if (z.getInt(0) != ZIP64_END_SIG) throw new ZipException("bad ZIP64 end record: " + zip);
+                    count = z.getLong(32);
+                    cenSize = z.getLong(40);
+                    cenOff = z.getLong(48);
+                }
+            }
+            ByteBuffer c = read(cenOff, checkedSize(cenSize, zip.toString()));
+            List<Entry> list = new ArrayList<>((int) Math.min(count, 1 << 20));
+            int p = 0;
+            for (long i = 0; i < count; i++) {
+                if (c.getInt(p) != CEN_SIG) throw new ZipException("bad central directory: " + zip);
+                int method = u16(c, p + 10);
+                long crc = u32(c, p + 16), csize = u32(c, p + 20), size = u32(c, p + 24);
+                int nlen = u16(c, p + 28), xlen = u16(c, p + 30), clen = u16(c, p + 32);
+                long off = u32(c, p + 42);
+                String name = new String(c.array(), p + CEN_HDR, nlen, StandardCharsets.UTF_8);
+                // ZIP64 extra: only the fields saturated in the fixed header are present, in this order.
+                for (int x = p + CEN_HDR + nlen, xe = x + xlen; x + 4 <= xe; ) {
+                    int id = u16(c, x), sz = u16(c, x + 2), q = x + 4;
+                    if (id == 0x0001) {
+                        if (size == MAX32 && q + 8 <= x + 4 + sz)  { size = c.getLong(q); q += 8; }
+                        if (csize == MAX32 && q + 8 <= x + 4 + sz) { csize = c.getLong(q); q += 8; }
+                        if (off == MAX32 && q + 8 <= x + 4 + sz)   { off = c.getLong(q); }
+                    }
+                    x += 4 + sz;
+                }
+                list.add(new Entry(name, method, crc, csize, size, off));
+                p += CEN_HDR + nlen + xlen + clen;
+            }
+            return list;
+        }
+
+        /** {@code n} bytes at {@code pos}: a slice of the mapping, or a heap copy when not mapped. */
+        private ByteBuffer view(long pos, int n) throws IOException {
+            if (map == null) return read(pos, n).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+            if (pos < 0 || pos + n > map.capacity()) throw new ZipException("unexpected end of zip");
+            ByteBuffer b = map.duplicate();
+            b.position((int) pos).limit((int) pos + n);
+            return b.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        /** {@code n} bytes at {@code pos} in a heap buffer ({@code array()} usable). */
+        private ByteBuffer read(long pos, int n) throws IOException {
+            ByteBuffer b = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+            if (map != null) {
+                b.put(view(pos, n)).clear();
+                return b;
+            }
+            while (b.hasRemaining()) {
+                if (ch.read(b, pos + b.position()) < 0) throw new ZipException("unexpected end of zip");
+            }
+            b.clear();
+            return b;
+        }
+    }
+
+    // ------------------------------------------------------------------ writing
+    /** Sequential jar writer. Not thread-safe: callers {@link #pack} entries in parallel, then append in order. */
+    static final class Writer implements Closeable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+        private final ByteArrayOutputStream cen = new ByteArrayOutputStream();
+        private long pos;
+        private long count;
+
+        Writer(Path jar) throws IOException {
+            ch = FileChannel.open(jar, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        /** Appends an entry copied verbatim from another zip: its raw bytes plus the source's CRC/sizes. */
+        void copy(Entry e, ByteBuffer raw) throws IOException {
+            append(e.name, e.method, e.crc, raw, e.size);
+        }
+
+        void copy(Entry e, byte[] raw) throws IOException {
+            copy(e, ByteBuffer.wrap(raw));
+        }
+
+        /** Appends an entry compressed ahead of time by {@link RawZip#pack}. */
+        void add(Packed p) throws IOException {
+            copy(p.entry, p.raw);
+        }
+
+        /** Appends {@code data} deflated at the default level, on the calling thread. */
+        void write(String name, byte[] data) throws IOException {
+            add(pack(name, data, DEFLATED));
+        }
+
+        private void append(String name, int method, long crc, ByteBuffer data, long size) throws IOException {
+            int csize = data.remaining();
+            if (size >= MAX32 || csize >= MAX32) throw new ZipException("entry too large: " + name);
+            byte[] n = name.getBytes(StandardCharsets.UTF_8);
+            int version = method == STORED ? 10 : 20;
+            ByteBuffer loc = le(LOC_HDR);
+            loc.putInt(LOC_SIG).putShort((short) version).putShort((short) FLAG_UTF8).putShort((short) method)
+                    .putShort((short) 0).putShort((short) DOS_DATE_1980)
+                    .putInt((int) crc).putInt(csize).putInt((int) size)
+                    .putShort((short) n.length).putShort((short) 0);
+            put(loc.array());
+            put(n);
+            put(data);
+
+            boolean off64 = pos >= MAX32;
+            ByteBuffer c = le(CEN_HDR);
+            c.putInt(CEN_SIG).putShort((short) (off64 ? 45 : version)).putShort((short) (off64 ? 45 : version))
+                    .putShort((short) FLAG_UTF8).putShort((short) method)
+                    .putShort((short) 0).putShort((short) DOS_DATE_1980)
+                    .putInt((int) crc).putInt(csize).putInt((int) size)
+                    .putShort((short) n.length).putShort((short) (off64 ? 12 : 0)).putShort((short) 0)
+                    .putShort((short) 0).putShort((short) 0).putInt(0)
+                    .putInt(off64 ? (int) MAX32 : (int) pos);
+            cen.write(c.array());
+            cen.write(n);
+            if (off64) cen.write(le(12).putShort((short) 0x0001).putShort((short) 8).putLong(pos).array());
+
+            pos += LOC_HDR + n.length + csize;
+            count++;
+        }
+
+        private void put(byte[] b) throws IOException { put(ByteBuffer.wrap(b)); }
+
+        /** Buffered write; a source bigger than the buffer goes to the channel directly (no copy). */
+        private void put(ByteBuffer src) throws IOException {
+            if (src.remaining() > buf.remaining()) {
+                flush();
+                if (src.remaining() >= buf.capacity()) {
+                    while (src.hasRemaining()) ch.write(src);
+                    return;
+                }
+            }
+            buf.put(src);
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        @Override public void close() throws IOException {
+            try {
+                long cenOff = pos, cenSize = cen.size();
+                put(cen.toByteArray());
+                pos += cenSize;
+                boolean zip64 = count >= 0xFFFF || cenOff >= MAX32 || cenSize >= MAX32;
+                if (zip64) {
+                    long z64 = pos;
+                    put(le(56).putInt(ZIP64_END_SIG).putLong(44).putShort((short) 45).putShort((short) 45)
+                            .putInt(0).putInt(0).putLong(count).putLong(count).putLong(cenSize).putLong(cenOff).array());
+                    put(le(20).putInt(ZIP64_LOC_SIG).putInt(0).putLong(z64).putInt(1).array());
+                }
+                put(le(END_HDR).putInt(END_SIG).putShort((short) 0).putShort((short) 0)
+                        .putShort((short) Math.min(count, 0xFFFF)).putShort((short) Math.min(count, 0xFFFF))
+                        .putInt((int) Math.min(cenSize, MAX32)).putInt((int) Math.min(cenOff, MAX32))
+                        .putShort((short) 0).array());
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------ helpers
+    private static ByteBuffer le(int n) { return ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN); }
+
+    private static int u16(ByteBuffer b, int i) { return b.getShort(i) & 0xFFFF; }
+
+    private static long u32(ByteBuffer b, int i) { return b.getInt(i) & MAX32; }
+
+    private static int checkedSize(long n, String what) throws ZipException {
+        if (n < 0 || n > Integer.MAX_VALUE - 8) throw new ZipException("entry too large: " + what);
+        return (int) n;
+    }
+
+    private RawZip() {}
+}
@@ -0,0 +1,125 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed on-disk cache of stubbed classes, shared by every build on the machine.
+ *
+ * <p>Why: most {@code android/*} classes are byte-identical across emulator images and API levels,
+ * so re-running {@link Stubifier} on them each build is wasted ASM work. An entry is keyed by the
+ * SHA-256 of the input class bytes (plus {@link #FORMAT} and the caller's flavor, so a change to
+ * the stubber or a different stub mode never returns a stale result) and holds the stub bytes.
+ *
+ * <p>Layout: {@code <dir>/<2 hex>/<62 hex>}. Writes go through a temp file and an atomic rename,
+ * so concurrent workers and concurrent builds never see a partial entry. A hit refreshes the file's
+ * mtime, and {@link #close} evicts least-recently-used entries once the cache exceeds its cap. Every
+ * I/O problem is a miss, never a failure: the cache can only make a build faster.
+ */
+final class StubCache implements AutoCloseable {
+
+    /** Bump whenever {@link Stubifier}'s output for the same input changes. */
+    static final String FORMAT = "stub-v1";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final byte[] salt;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    StubCache(Path dir, long maxBytes, String flavor) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.salt = (FORMAT + '\0' + flavor + '\0').getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** The cached stub for {@code in}, or null. */
+    byte[] get(byte[] in) {
+        Path p = path(in);
+        try {
+            byte[] out = Files.readAllBytes(p);
+            try { Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis())); }
+            catch (IOException ignored) { /* LRU order is best effort */ }
+            hits.incrementAndGet();
+            return out;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(byte[] in, byte[] stub) {
+        Path p = path(in);
+        try {
+            Files.createDirectories(p.getParent());
+            Path tmp = Files.createTempFile(p.getParent(), p.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, stub);
+                try { Files.move(tmp, p, StandardCopyOption.ATOMIC_MOVE); }
+                catch (AtomicMoveNotSupportedException e) { Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING); }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException ignored) {
+            // Unwritable cache: the build just does not get faster next time.
+        }
+    }
+
+    /** One line for the tool's log: lookups and hit rate. */
+    String report() {
+        long h = hits.get(), n = h + misses.get();
+        return h + "/" + n + " hit(s)" + (n == 0 ? "" : " (" + (100 * h / n) + "%)") + " in " + dir;
+    }
+
+    /** Evicts least-recently-used entries until the cache is back under 90% of its cap. */
+    @Override
+    public void close() {
+        List<Object[]> files = new ArrayList<>();   // { Path, mtime millis, size }
+        long total = 0;
+        try (Stream<Path> s = Files.walk(dir, 2)) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                BasicFileAttributes a;
+                try { a = Files.readAttributes(p, BasicFileAttributes.class); }
+                catch (NoSuchFileException e) { continue; }   // evicted by a concurrent build
+                if (!a.isRegularFile()) continue;
+                files.add(new Object[] { p, a.lastModifiedTime().toMillis(), a.size() });
+                total += a.size();
+            }
+        } catch (IOException | RuntimeException e) {
+            return;
+        }
+        if (total <= maxBytes) return;
+        files.sort((x, y) -> Long.compare((Long) x[1], (Long) y[1]));
+        long target = maxBytes / 10 * 9;
+        int evicted = 0;
+        for (Object[] f : files) {
+            if (total <= target) break;
+            try { Files.deleteIfExists((Path) f[0]); total -= (Long) f[2]; evicted++; }
+            catch (IOException ignored) { /* try the next one */ }
+        }
+        System.err.println("[stub-cache] evicted " + evicted + " least-recently-used entr"
+                + (evicted == 1 ? "y" : "ies") + " (cap " + (maxBytes >> 20) + " MB)");
+    }
+
+    private Path path(byte[] in) {
+        MessageDigest md;
+        try { md = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+        md.update(salt);
+        byte[] d = md.digest(in);
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : d) hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return dir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+}
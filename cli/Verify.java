@@ -0,0 +1,296 @@
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The success gate, in one JVM: four independent checks on the assembled jar, each catching a
+ * failure mode the others miss (issue #100 slipped past the old one-probe gate because that probe
+ * only touched three @hide symbols and never a normal class):
+ * <ol>
+ *   <li><b>compile probe</b> — hidden AND normal public API + supertype chains resolve under javac;</li>
+ *   <li><b>conflict guard</b> — the jar does NOT ship JDK/dependency-shadowing runtime (the issue-#100
+ *       cause);</li>
+ *   <li><b>public-API floor</b> — the merge never dropped one of the SDK's own classes;</li>
+ *   <li><b>supertype closure</b> — {@link ClosureVerify}: no public class is left with a missing
+ *       supertype.</li>
+ * </ol>
+ *
+ * <p>The jar is opened once as a {@link RawZip.Reader}. Checks 2 and 3 are set operations on its
+ * central directory (and the base jar's); check 1 runs {@code javax.tools.JavaCompiler} on a probe
+ * held in memory, with a file manager that serves the class path straight from the jar's entries —
+ * inflating only the classes javac asks for, writing nothing; check 4 parses the class headers from
+ * the same mapping. No javac, unzip or second JVM process.
+ *
+ * <p>Usage: {@code Verify --base <sdk jar> [--release N] [--jdk-cache DIR] [--index FILE]
+ * [--deep [--jobs N]] <jar>} — the options after {@code --base} are {@link ClosureVerify}'s. Exit 1
+ * when any check fails.
+ */
+public final class Verify {
+
+    // The ART runtime and repackaged libraries that shadow the JDK and an app's own dependencies.
+    private static final String[] CONFLICT_NS = {
+        "sun/", "jdk/", "libcore/", "com/google/", "com/android/okhttp/", "com/android/org/", "gov/nist/",
+        "org/apache/xml/", "org/apache/xpath/", "org/apache/xalan/",
+    };
+
+    // Normal public API + supertype chains (View -> Drawable.Callback, Activity, ...) AND @hide symbols
+    // across android.*, dalvik.* and com.android.internal.*. If any of these types or the supertype
+    // graph they touch is missing/corrupt, javac fails here.
+    private static final String PROBE = String.join("\n",
+        "import android.app.Activity;",
+        "import android.app.ActivityThread;",
+        "import android.content.Context;",
+        "import android.graphics.drawable.Drawable;",
+        "import android.os.Bundle;",
+        "import android.os.IBinder;",
+        "import android.os.ServiceManager;",
+        "import android.view.View;",
+        "import android.view.ViewGroup;",
+        "import dalvik.system.VMRuntime;",
+        "",
+        "public abstract class HiddenApiProbe extends ViewGroup {   // walks View -> Drawable.Callback, KeyEvent.Callback, ...",
+        "    public HiddenApiProbe(Context c) { super(c); }",
+        "    Drawable.Callback asDrawableCallback() { return this; } // View implements Drawable.Callback (issue #100 supertype)",
+        "    Activity activity;",
+        "    Bundle bundle;",
+        "    View view;",
+        "    IBinder windowService() { return ServiceManager.getService(\"window\"); } // @hide android.os",
+        "    ActivityThread currentThread() { return ActivityThread.currentActivityThread(); } // @hide android.app",
+        "    Object vmRuntime() { return VMRuntime.getRuntime(); } // @hide dalvik.system (absent from stock)",
+        "    Class<?> internal() { return com.android.internal.R.class; } // com.android.internal",
+        "}",
+        "");
+
+    public static void main(String[] args) throws IOException {
+        String jar = null, base = null, jdkCache = null, index = null;
+        boolean deep = false;
+        int release = 0, jobs = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--base":      base = args[++i]; break;
+                case "--release":   release = Integer.parseInt(args[++i]); break;
+                case "--jdk-cache": jdkCache = args[++i]; break;
+                case "--index":     index = args[++i]; break;
+                case "--deep":      deep = true; break;
+                case "--jobs":      jobs = Math.max(1, Integer.parseInt(args[++i])); break;
+                default:            jar = args[i];
+            }
+        }
+        if (jar == null || base == null) {
+            System.err.println("usage: Verify --base <sdk jar> [--release N] [--jdk-cache DIR] [--index FILE] [--deep [--jobs N]] <jar>");
+            System.exit(2);
+            return;
+        }
+        JdkIndex jdk;
+        try { jdk = JdkIndex.load(release, jdkCache == null ? null : Paths.get(jdkCache)); }
+        catch (IllegalArgumentException e) { System.err.println("Verify: " + e.getMessage()); System.exit(2); return; }
+
+        long start = System.nanoTime();
+        boolean ok = true;
+        try (RawZip.Reader z = new RawZip.Reader(Paths.get(jar))) {
+            Set<String> classes = new HashSet<>();
+            int internal = 0;
+            for (RawZip.Entry e : z.entries()) {
+                if (!e.name.endsWith(".class")) continue;
+                classes.add(e.name);
+                if (e.name.startsWith("com/android/internal/")) internal++;
+            }
+            System.err.println("[verify] " + jar + ": " + classes.size() + " classes, " + internal + " com.android.internal");
+
+            // (1) Compile probe.
+            List<String> errors = compileProbe(z);
+            if (errors.isEmpty()) {
+                System.err.println("[verify] verify(1/4) compile probe OK — View/ViewGroup/Drawable.Callback/Activity + @hide resolve");
+            } else {
+                System.err.println("[verify] verify(1/4) compile probe FAILED — the jar cannot resolve core public + hidden APIs:");
+                for (String s : errors) System.err.println(s);
+                ok = false;
+            }
+
+            // (2) Conflict guard: the jar must NOT ship the ART runtime / repackaged libs that shadow the
+            //     JDK and the app's own dependencies. Their presence is what made Kotlin/Gradle reject the
+            //     jar in issue #100, and it guards the overlay namespace filter against regressing.
+            Set<String> polluted = new TreeSet<>();
+            for (RawZip.Entry e : z.entries()) {
+                for (String ns : CONFLICT_NS) if (e.name.startsWith(ns)) polluted.add(ns);
+            }
+            if (!polluted.isEmpty()) {
+                System.err.println("[verify] verify(2/4) conflict guard FAILED — jar ships JDK/dependency-shadowing namespaces: "
+                        + String.join(" ", polluted));
+                ok = false;
+            } else {
+                System.err.println("[verify] verify(2/4) conflict guard OK — no JDK/dependency-shadowing namespaces");
+            }
+
+            // (3) Public-API floor: the merge overlays onto the SDK jar, so every class of the base SDK
+            //     jar must still be in the result. A missing one means the merge lost curated public API.
+            //     Compared by name, not by count, so a lost class cannot hide behind added ones.
+            List<String> lost = new ArrayList<>();
+            int baseN = 0;
+            try (RawZip.Reader b = new RawZip.Reader(Paths.get(base), false)) {
+                for (RawZip.Entry e : b.entries()) {
+                    if (!e.name.endsWith(".class")) continue;
+                    baseN++;
+                    if (!classes.contains(e.name)) lost.add(e.name);
+                }
+            }
+            if (!lost.isEmpty()) {
+                System.err.println("[verify] verify(3/4) public-API floor FAILED — " + lost.size() + " of the base SDK jar's "
+                        + baseN + " classes are missing from the jar:");
+                Collections.sort(lost);
+                for (String s : lost.subList(0, Math.min(50, lost.size()))) System.err.println("[verify]   " + s);
+                ok = false;
+            } else {
+                System.err.println("[verify] verify(3/4) public-API floor OK — " + classes.size() + " classes, all "
+                        + baseN + " of the base SDK jar's included");
+            }
+
+            // (4) Supertype closure: no android.*/dalvik.*/java.* class may be left with a dangling
+            //     supertype (the exact issue-#100 symptom, e.g. View losing Drawable.Callback).
+            System.err.println("[closure] JDK classes: " + jdk.describe());
+            if (ClosureVerify.check(ClosureVerify.Input.jar(z), jdk, index == null ? null : Paths.get(index), deep, jobs) == 0) {
+                System.err.println("[verify] verify(4/4) supertype closure OK");
+            } else {
+                System.err.println("[verify] verify(4/4) supertype closure FAILED — a public supertype is missing (issue #100 symptom)");
+                ok = false;
+            }
+        }
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        if (ok) System.err.println("[verify] Verification OK: all 4 checks passed in " + ms + " ms");
+        else System.err.println("[verify] Verification FAILED (see checks above)");
+        System.exit(ok ? 0 : 1);
+    }
+
+    // ------------------------------------------------------------------ compile probe
+    /** Compiles {@link #PROBE} against {@code jar} alone (plus the JDK); returns javac's errors, empty
+     *  on success. */
+    private static List<String> compileProbe(RawZip.Reader jar) throws IOException {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) return Collections.singletonList("no Java compiler in this runtime — run the tools with a JDK");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (JarFileManager fm = new JarFileManager(javac.getStandardFileManager(diagnostics, null, StandardCharsets.UTF_8), jar)) {
+            JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///HiddenApiProbe.java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) { return PROBE; }
+            };
+            boolean ok = javac.getTask(null, fm, diagnostics, Arrays.asList("-nowarn", "-proc:none"), null,
+                    Collections.singletonList(source)).call();
+            List<String> errors = new ArrayList<>();
+            for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+                if (d.getKind() == Diagnostic.Kind.ERROR) errors.add(d.toString());
+            }
+            if (!ok && errors.isEmpty()) errors.add("javac failed without a diagnostic");
+            return errors;
+        }
+    }
+
+    /**
+     * javac's view of the world for the probe: the platform classes as usual, but a class path made
+     * of {@code jar}'s class entries — listed from the central directory by package, inflated only
+     * when javac opens one — and an output that goes nowhere.
+     */
+    private static final class JarFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+        private final RawZip.Reader jar;
+        private final Map<String, List<JavaFileObject>> packages = new HashMap<>();   // "a.b" -> classes
+
+        JarFileManager(StandardJavaFileManager std, RawZip.Reader jar) throws IOException {
+            super(std);
+            this.jar = jar;
+            std.setLocation(StandardLocation.CLASS_PATH, Collections.emptyList());
+            for (RawZip.Entry e : jar.entries()) {
+                if (!e.name.endsWith(".class") || e.name.endsWith("module-info.class")) continue;
+                int slash = e.name.lastIndexOf('/');
+                String pkg = slash < 0 ? "" : e.name.substring(0, slash).replace('/', '.');
+                packages.computeIfAbsent(pkg, k -> new ArrayList<>()).add(new EntryObject(e));
+            }
+        }
+
+        @Override
+        public boolean hasLocation(Location location) {
+            return location == StandardLocation.CLASS_PATH || super.hasLocation(location);
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                             boolean recurse) throws IOException {
+            if (location != StandardLocation.CLASS_PATH) return super.list(location, packageName, kinds, recurse);
+            if (!kinds.contains(JavaFileObject.Kind.CLASS)) return Collections.emptyList();
+            if (!recurse) return packages.getOrDefault(packageName, Collections.emptyList());
+            List<JavaFileObject> out = new ArrayList<>();
+            for (Map.Entry<String, List<JavaFileObject>> p : packages.entrySet()) {
+                String name = p.getKey();
+                if (packageName.isEmpty() || name.equals(packageName) || name.startsWith(packageName + ".")) {
+                    out.addAll(p.getValue());
+                }
+            }
+            return out;
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return file instanceof EntryObject ? ((EntryObject) file).binaryName : super.inferBinaryName(location, file);
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return a instanceof EntryObject || b instanceof EntryObject ? a == b : super.isSameFile(a, b);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind,
+                                                   FileObject sibling) {
+            return new SimpleJavaFileObject(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind) {
+                @Override
+                public OutputStream openOutputStream() { return new ByteArrayOutputStream(); }
+            };
+        }
+
+        private final class EntryObject extends SimpleJavaFileObject {
+            final RawZip.Entry entry;
+            final String binaryName;
+
+            EntryObject(RawZip.Entry entry) {
+                super(uri(entry.name), JavaFileObject.Kind.CLASS);
+                this.entry = entry;
+                this.binaryName = entry.name.substring(0, entry.name.length() - ".class".length()).replace('/', '.');
+            }
+
+            @Override
+            public InputStream openInputStream() throws IOException { return new ByteArrayInputStream(jar.bytes(entry)); }
+        }
+
+        private static URI uri(String entryName) {
+            try { return new URI("jar", null, "/" + entryName, null); }
+            catch (URISyntaxException e) { throw new IllegalArgumentException(e); }
+        }
+    }
+
+    private Verify() {}
+}
@@ -24,12 +24,22 @@ $DexToolsVersion = '2.4.37'
 $DexToolsUrl     = "https://github.com/ThexXTURBOXx/dex2jar/releases/download/$DexToolsVersion/dex-tools-$DexToolsVersion.zip"
 $CacheDir        = Join-Path $HOME '.cache/hiddenjar'
 $MinJarBytes     = 1024
+$BootCacheKeep   = 3      # device images whose converted boot jars stay in $CacheDir/boot
 
 # Directory of this script — used to locate the bundled Stubifier.java.
 $ScriptDir    = $PSScriptRoot
 $StubifierSrc = Join-Path $ScriptDir 'Stubifier.java'
 $ClosureSrc   = Join-Path $ScriptDir 'ClosureVerify.java'
 $BuildJarSrc  = Join-Path $ScriptDir 'BuildJar.java'
+$RawZipSrc    = Join-Path $ScriptDir 'RawZip.java'
+$StubCacheSrc = Join-Path $ScriptDir 'StubCache.java'
+$BuildManifestSrc = Join-Path $ScriptDir 'BuildManifest.java'
+$AbiSrc       = Join-Path $ScriptDir 'Abi.java'
+$JdkIndexSrc  = Join-Path $ScriptDir 'JdkIndex.java'
+$ClassGraphSrc = Join-Path $ScriptDir 'ClassGraph.java'
+$ClosureIndexSrc = Join-Path $ScriptDir 'ClosureIndex.java'
+$VerifySrc = Join-Path $ScriptDir 'Verify.java'
+$DexConvertSrc = Join-Path $ScriptDir 'DexConvert.java'
 
 # Works on both Windows PowerShell 5.1 (no $IsWindows) and PowerShell 7+.
 $OnWindows = [Environment]::OSVersion.Platform -eq [PlatformID]::Win32NT
@@ -38,6 +48,8 @@ $OnWindows = [Environment]::OSVersion.Platform -eq [PlatformID]::Win32NT
 $OptSerial = $null; $OptAvd = $null; $OptApi = $null; $OptSdkDir = $null
 $OptOnlyFramework = $false; $OptOutput = $null; $OptInstall = $false
 $OptDexTools = $null; $OptWorkDir = $null; $OptKeep = $false; $OptKeepBodies = $false; $OptKeepDangling = $false
+$OptIncremental = $false; $OptStore = $false; $OptApiOnly = $false; $OptDelta = $false; $OptSplit = $false; $OptDeepVerify = $false
+$OptJobs = 0; $OptNoCache = $false
 $D2J = $null; $Adb = $null
 
 # ----------------------------------------------------------------------------
@@ -177,6 +189,118 @@ function Pick-Serial {
     else                  { Die "no adb device online — start an emulator or pass --avd NAME" }
 }
 
+# The boot jar cache directory for the connected device's image, or $null when the image has no
+# ro.build.fingerprint. One directory per fingerprint and converter (DexConvert.java and the dex-tools
+# lib), so a new image or a new converter never reuses another's classes.
+function Get-BootCacheDir {
+    $fp = ("$(& $script:Adb -s $script:OptSerial shell getprop ro.build.fingerprint 2>$null)").Trim()
+    if (-not $fp) { return $null }
+    $lib = Join-Path (Split-Path $script:D2J) 'lib'
+    $names = @(Get-ChildItem -Path $lib -Filter '*.jar' -ErrorAction SilentlyContinue | ForEach-Object { $_.Name } | Sort-Object)
+    $bytes = [IO.File]::ReadAllBytes($DexConvertSrc) + [Text.Encoding]::UTF8.GetBytes(($names -join "`n"))
+    $sha = [Security.Cryptography.SHA256]::Create()
+    $conv = -join ($sha.ComputeHash($bytes)[0..4] | ForEach-Object { $_.ToString('x2') })
+    return (Join-Path (Join-Path $CacheDir 'boot') ((($fp -replace '[^A-Za-z0-9._-]', '_')) + "-$conv"))
+}
+
+# Keeps the $BootCacheKeep most recently used image directories of $CacheDir/boot, deleting the rest.
+function Remove-StaleBootCache {
+    Get-ChildItem -Path (Join-Path $CacheDir 'boot') -Directory -ErrorAction SilentlyContinue |
+        Sort-Object LastWriteTime -Descending | Select-Object -Skip $BootCacheKeep |
+        ForEach-Object { Remove-Item -Recurse -Force $_.FullName -ErrorAction SilentlyContinue }
+}
+
+# Pulls every jar of $jarList into $pulled and converts each one with DEX to $classes\<name>-classes.jar,
+# an uncompressed (STORED) class store that BuildJar reads in place.
+# adb pulls run one at a time, in boot-classpath order; each pulled jar is handed straight to
+# DexConvert, one JVM that converts up to $OptJobs jars at once with the dex-tools library while the
+# next pulls run (see pull_and_convert in the bash script). Every jar's outcome lands in
+# $work\status\<idx>. Invoke-Assemble later takes the outputs in name order, not completion order, so
+# the assembled jar is the same for any --jobs. With a boot jar cache directory $cache (see
+# Get-BootCacheDir), a jar whose device path, size and mtime match an earlier build is neither pulled
+# nor converted: its class store is copied from the cache, and freshly converted jars are added to it.
+# Returns @{ Converted; Cached; Skipped; Failed }.
+function Invoke-PullConvert {
+    param($jarList, $pulled, $classes, $work, $jarTool, $cache)
+    if (-not (Initialize-JavaTools $work)) { Die "Java tools (ASM/Stubifier/ClosureVerify/BuildJar) unavailable — keep cli/*.java intact" }
+    $status = Join-Path $work 'status'
+    if (Test-Path $status) { Remove-Item -Recurse -Force $status }
+    New-Item -ItemType Directory -Path $status -Force | Out-Null
+    $total = @($jarList).Count
+    Write-Log "Boot classpath entries to consider: $total (converting on $OptJobs worker(s))"
+    # One adb round trip for every jar's size and mtime: the per-jar half of the cache key.
+    $stamps = @{}
+    if ($cache) {
+        try {
+            New-Item -ItemType Directory -Path $cache -Force | Out-Null
+            (Get-Item $cache).LastWriteTime = Get-Date   # last use, for Remove-StaleBootCache
+        } catch { Write-Warn "boot jar cache unavailable: $cache"; $cache = $null }
+    }
+    if ($cache) {
+        & $script:Adb -s $script:OptSerial shell "stat -c '%s-%Y %n' $(@($jarList) -join ' ')" 2>$null | ForEach-Object {
+            $f = ("$_".Trim()) -split ' ', 2
+            if ($f.Count -eq 2) { $stamps[$f[1]] = $f[0] }
+        }
+    }
+    $keys = @{}
+    $sep = [IO.Path]::PathSeparator
+    $psi = New-Object System.Diagnostics.ProcessStartInfo
+    $psi.FileName = $script:ToolsJava
+    $psi.Arguments = "-cp `"$($script:ToolsOut)$sep$($script:ToolsCp)`" DexConvert --jobs $OptJobs"
+    $psi.UseShellExecute = $false
+    $psi.RedirectStandardInput = $true
+    $conv = [System.Diagnostics.Process]::Start($psi)
+    $idx = 0
+    foreach ($devPath in $jarList) {
+        $idx++
+        $mark = Join-Path $status "$idx"
+        $localName = ($devPath -replace '^/', '') -replace '/', '_'
+        $localJar  = Join-Path $pulled $localName
+        $outJar = Join-Path $classes (($localName -replace '\.jar$', '') + '-classes.jar')
+        $key = if ($stamps.ContainsKey($devPath)) { Join-Path $cache (($localName -replace '\.jar$', '') + '@' + $stamps[$devPath]) } else { $null }
+        if ($key -and (Test-Path "$key.skipped")) { Write-Note "[$idx/$total] skip (stripped/no DEX, cached): $devPath"; Set-Content $mark 'skipped'; continue }
+        if ($key -and (Test-Path "$key.jar")) {
+            try { Copy-Item "$key.jar" $outJar -Force; Write-Note "[$idx/$total] cached: $devPath"; Set-Content $mark 'cached'; continue } catch { }
+        }
+        & $script:Adb -s $script:OptSerial pull $devPath $localJar 2>$null | Out-Null
+        if ($LASTEXITCODE -ne 0 -or -not (Test-Path $localJar)) { Write-Warn "[$idx/$total] pull failed: $devPath"; Set-Content $mark 'failed'; continue }
+        $size = (Get-Item $localJar).Length
+        $dexCount = @(& $jarTool tf $localJar 2>$null | Select-String -Pattern 'classes\d*\.dex$').Count
+        if ($size -lt $MinJarBytes -or $dexCount -eq 0) {
+            Write-Note "[$idx/$total] skip (stripped/no DEX, ${size}B): $devPath"; Set-Content $mark 'skipped'
+            if ($key) { try { Set-Content "$key.skipped" '' } catch { } }
+            continue
+        }
+        if ($key) { $keys[$idx] = @($key, $outJar) }
+        $conv.StandardInput.WriteLine("$mark`t[$idx/$total]`t$devPath`t$localJar`t$outJar`t$dexCount")
+        $conv.StandardInput.Flush()
+    }
+    $conv.StandardInput.Close()
+    $conv.WaitForExit()
+    if ($conv.ExitCode -ne 0) { Write-Warn "DexConvert exited early; jars it did not finish count as failed" }
+    # A jar with no status never finished converting. A converted jar goes into the cache under its
+    # key, replacing any entry of an older build of the same jar.
+    $state = @{ Converted = 0; Cached = 0; Skipped = 0; Failed = 0 }
+    for ($i = 1; $i -le $idx; $i++) {
+        $mark = Join-Path $status "$i"
+        $s = if (Test-Path $mark) { (Get-Content $mark -TotalCount 1).Trim() } else { '' }
+        if ($s -eq 'converted') {
+            $state.Converted++
+            if (-not $keys.ContainsKey($i)) { continue }
+            $key, $outJar = $keys[$i]
+            try {
+                $stem = Split-Path -Leaf ($key -replace '@[^@]*$', '@')
+                Get-ChildItem -Path $cache -Filter "$stem*" | Remove-Item -Force
+                Copy-Item $outJar "$key.jar.tmp" -Force
+                Move-Item "$key.jar.tmp" "$key.jar" -Force
+            } catch { Write-Warn "could not cache $outJar" }
+        }
+        elseif ($s -eq 'cached') { $state.Converted++; $state.Cached++ }
+        elseif ($s -eq 'skipped') { $state.Skipped++ } else { $state.Failed++ }
+    }
+    return $state
+}
+
 # ----------------------------------------------------------------------------
 # build
 # ----------------------------------------------------------------------------
@@ -222,25 +346,15 @@ function Invoke-Build {
         $bcp = "$(& $script:Adb -s $script:OptSerial shell 'echo $BOOTCLASSPATH')"
         $jarList = ($bcp -replace "`r", '') -split ':' | Where-Object { $_ -ne '' }
     }
-    $total = @($jarList).Count
-    Write-Log "Boot classpath entries to consider: $total"
 
-    $converted = 0; $skipped = 0; $failed = 0; $idx = 0
-    foreach ($devPath in $jarList) {
-        $idx++
-        $localName = ($devPath -replace '^/', '') -replace '/', '_'
-        $localJar  = Join-Path $pulled $localName
-        & $script:Adb -s $script:OptSerial pull $devPath $localJar 2>$null | Out-Null
-        if ($LASTEXITCODE -ne 0 -or -not (Test-Path $localJar)) { Write-Warn "[$idx/$total] pull failed: $devPath"; $failed++; continue }
-        $size = (Get-Item $localJar).Length
-        $dexCount = @(& $jarTool tf $localJar 2>$null | Select-String -Pattern 'classes\d*\.dex$').Count
-        if ($size -lt $MinJarBytes -or $dexCount -eq 0) { Write-Note "[$idx/$total] skip (stripped/no DEX, ${size}B): $devPath"; $skipped++; continue }
-        $outJar = Join-Path $classes (($localName -replace '\.jar$', '') + '-classes.jar')
-        & $script:D2J --force -o $outJar $localJar 2>$null | Out-Null
-        if ($LASTEXITCODE -eq 0 -and (Test-Path $outJar)) { Write-Note "[$idx/$total] converted ($dexCount dex): $devPath"; $converted++ }
-        else { Write-Warn "[$idx/$total] dex2jar failed: $devPath"; $failed++ }
-    }
-    Write-Log "Jars converted: $converted, skipped: $skipped, failed: $failed"
+    if (-not $OptJobs) { $script:OptJobs = [Math]::Min(4, [Environment]::ProcessorCount) }
+    $bootCache = if ($OptNoCache) { $null } else { Get-BootCacheDir }
+    if ($bootCache) { Write-Note "Boot jar cache: $bootCache" }
+    elseif (-not $OptNoCache) { Write-Note "Device reports no ro.build.fingerprint — boot jar cache off" }
+    $counts = Invoke-PullConvert $jarList $pulled $classes $work $jarTool $bootCache
+    if ($bootCache) { Remove-StaleBootCache }
+    $converted = $counts.Converted; $skipped = $counts.Skipped; $failed = $counts.Failed
+    Write-Log "Jars converted: $converted ($($counts.Cached) from the boot jar cache), skipped: $skipped, failed: $failed"
     if ($converted -eq 0) { Die "no framework jars had usable DEX — use an API >= 34 image or a device" }
 
     # Assemble the custom android.jar in memory (base + overlay jars) — see cli/BuildJar.java. The
@@ -262,12 +376,16 @@ function Invoke-Build {
     Invoke-Assemble $baseJar $output $work $overlays
 
     $outsize    = (Get-Item $output).Length
-    $entries    = & $jarTool tf $output
-    $allclasses = @($entries | Select-String -Pattern '\.class$').Count
-    $internal   = @($entries | Select-String -Pattern 'com/android/internal/').Count
-    Write-Log "Built: $output ($outsize bytes, $allclasses classes, $internal com.android.internal)"
+    Write-Log "Built: $output ($outsize bytes)"
+    if ($OptDelta) {
+        $delta = Get-DeltaPath $output
+        Write-Log "Delta: $delta ($((Get-Item $delta).Length) bytes) — use with: gradlew <task> -PhiddenJarDelta=$delta"
+    }
+    if ($OptSplit) {
+        Write-Log "Split: $(Get-SplitDir $output) (module jars + index.tsv) — use with: -PhiddenJarDelta=<jar>,<jar>,..."
+    }
 
-    if (-not (Test-Compile $output $baseJar $work $javac $jarTool)) { Die "verification failed (see checks above)" }
+    if (-not (Test-Compile $output $baseJar $work)) { Die "verification failed (see checks above)" }
 
     if ($OptInstall) { Install-Jar $output $platformDir $jarTool }
 
@@ -278,19 +396,24 @@ function Invoke-Build {
 
 # Compiles the bundled Java tools once (ASM comes from the dex-tools lib) and caches the java exe +
 # classpath + output dir in script scope. BuildJar assembles the jar; ClosureVerify is gate 4;
-# Stubifier is the byte-level stubber BuildJar calls. Returns $false if they cannot be built.
+# Stubifier is the byte-level stubber BuildJar calls; RawZip is its raw-entry zip reader/writer;
+# StubCache is the on-disk stub cache; BuildManifest records a build's inputs for --incremental;
+# Abi fingerprints a class's compile-visible surface (--delta); JdkIndex lists the JDK's class names
+# and ClassGraph holds the supertype graph for the prune and the gate; ClosureIndex keeps the gate's
+# results between --incremental runs; Verify runs all four verification checks; DexConvert turns the
+# pulled DEX into class jars in-process. Returns $false if they cannot be built.
 function Initialize-JavaTools {
     param($work)
     if ($script:ToolsOut -and (Test-Path (Join-Path $script:ToolsOut 'BuildJar.class'))) { return $true }
     $lib  = Join-Path (Split-Path $script:D2J) 'lib'
     $jars = @(Get-ChildItem -Path $lib -Recurse -Filter '*.jar' -ErrorAction SilentlyContinue | ForEach-Object { $_.FullName })
     if ($jars.Count -eq 0) { return $false }
-    if (-not (Test-Path $BuildJarSrc) -or -not (Test-Path $StubifierSrc) -or -not (Test-Path $ClosureSrc)) { return $false }
+    if (-not (Test-Path $BuildJarSrc) -or -not (Test-Path $StubifierSrc) -or -not (Test-Path $ClosureSrc) -or -not (Test-Path $RawZipSrc) -or -not (Test-Path $StubCacheSrc) -or -not (Test-Path $BuildManifestSrc) -or -not (Test-Path $AbiSrc) -or -not (Test-Path $JdkIndexSrc) -or -not (Test-Path $ClassGraphSrc) -or -not (Test-Path $ClosureIndexSrc) -or -not (Test-Path $VerifySrc) -or -not (Test-Path $DexConvertSrc)) { return $false }
     $javac = Resolve-Tool 'javac'; $java = Resolve-Tool 'java'
     if (-not $javac -or -not $java) { return $false }
     $out = Join-Path $work 'cli-out'
     New-Item -ItemType Directory -Path $out -Force | Out-Null
-    & $javac -cp ($jars -join [IO.Path]::PathSeparator) -d $out $StubifierSrc $ClosureSrc $BuildJarSrc 2>$null
+    & $javac -cp ($jars -join [IO.Path]::PathSeparator) -d $out $StubifierSrc $ClosureSrc $BuildJarSrc $RawZipSrc $StubCacheSrc $BuildManifestSrc $AbiSrc $JdkIndexSrc $ClassGraphSrc $ClosureIndexSrc $VerifySrc $DexConvertSrc 2>$null
     if ($LASTEXITCODE -ne 0) { return $false }
     $script:ToolsOut  = $out
     $script:ToolsCp   = ($jars -join [IO.Path]::PathSeparator)
@@ -298,16 +421,30 @@ function Initialize-JavaTools {
     return $true
 }
 
+# <output>-delta.jar next to the output (--delta).
+function Get-DeltaPath { param($output) return ($output -replace '\.jar$', '') + '-delta.jar' }
+
+# <output>-split directory next to the output (--split).
+function Get-SplitDir { param($output) return ($output -replace '\.jar$', '') + '-split' }
+
 # Assembles the custom android.jar in memory (base + overlay jars) via BuildJar — namespace filter,
 # prune and stubify, with no filesystem round-trip so case-colliding classes are never lost. BuildJar
-# exits non-zero on a real regression (a missing public supertype); we Die then.
+# exits non-zero on a real regression (a missing public supertype); we Die then. Stubs are cached by
+# input-class digest under $CacheDir/stubs, shared across builds and API levels; the JDK's class list
+# (what prune resolves supertypes against) under $CacheDir/jdk.
 function Invoke-Assemble {
     param($baseJar, $output, $work, $overlays)
     if (-not (Initialize-JavaTools $work)) { Die "Java tools (ASM/Stubifier/ClosureVerify/BuildJar) unavailable — keep cli/*.java intact" }
     $sep = [IO.Path]::PathSeparator
-    $bjArgs = @('--base', $baseJar, '--out', $output)
+    $bjArgs = @('--base', $baseJar, '--out', $output, '--stub-cache', (Join-Path $CacheDir 'stubs'),
+                '--jdk-cache', (Join-Path $CacheDir 'jdk'))
     if ($OptKeepBodies)   { $bjArgs += '--keep-bodies' }
     if ($OptKeepDangling) { $bjArgs += '--keep-dangling' }
+    if ($OptIncremental)  { $bjArgs += '--incremental' }
+    if ($OptStore)        { $bjArgs += '--store' }
+    if ($OptApiOnly)      { $bjArgs += '--api-only' }
+    if ($OptDelta)        { $bjArgs += @('--delta', (Get-DeltaPath $output)) }
+    if ($OptSplit)        { $bjArgs += @('--split', (Get-SplitDir $output)) }
     $bjArgs += $overlays
     & $script:ToolsJava -cp "$($script:ToolsOut)$sep$($script:ToolsCp)" BuildJar @bjArgs
     if ($LASTEXITCODE -ne 0) { Die "assembly failed (see above)" }
@@ -315,105 +452,40 @@ function Invoke-Assemble {
 
 # The success gate — four independent checks, each catching a failure mode the others miss (see the
 # bash script's verify_compile for the rationale; issue #100 slipped past the old single-probe gate).
+# All four run in one JVM (Verify), over one read of the jar: the probe compiles in memory against
+# the jar's entries, the conflict guard and public-API floor compare the jars' entry lists, and the
+# supertype closure is ClosureVerify (with --deep-verify, member signatures too; with --incremental,
+# only the classes changed since <jar>.closure).
 function Test-Compile {
-    param($jar, $baseJar, $work, $javac, $jarTool)
-    $probe = Join-Path $work 'probe'
-    New-Item -ItemType Directory -Path $probe -Force | Out-Null
-    $ok = $true
-
-    # (1) Compile probe: normal public API + supertype chains (View -> Drawable.Callback, Activity, ...)
-    #     AND @hide symbols across android.*, dalvik.* and com.android.internal.*.
-    $src = Join-Path $probe 'HiddenApiProbe.java'
-    @'
-import android.app.Activity;
-import android.app.ActivityThread;
-import android.content.Context;
-import android.graphics.drawable.Drawable;
-import android.os.Bundle;
-import android.os.IBinder;
-import android.os.ServiceManager;
-import android.view.View;
-import android.view.ViewGroup;
-import dalvik.system.VMRuntime;
-
-public abstract class HiddenApiProbe extends ViewGroup {   // walks View -> Drawable.Callback, KeyEvent.Callback, ...
-    public HiddenApiProbe(Context c) { super(c); }
-    Drawable.Callback asDrawableCallback() { return this; } // View implements Drawable.Callback (issue #100 supertype)
-    Activity activity;
-    Bundle bundle;
-    View view;
-    IBinder windowService() { return ServiceManager.getService("window"); } // @hide android.os
-    ActivityThread currentThread() { return ActivityThread.currentActivityThread(); } // @hide android.app
-    Object vmRuntime() { return VMRuntime.getRuntime(); } // @hide dalvik.system (absent from stock)
-    Class<?> internal() { return com.android.internal.R.class; } // com.android.internal
-}
-'@ | Set-Content -Path $src -Encoding ASCII
-    $log = Join-Path $probe 'javac.log'
-    & $javac -nowarn -cp $jar -d (Join-Path $probe 'out') $src 2> $log
-    if ($LASTEXITCODE -eq 0) {
-        Write-Note "verify(1/4) compile probe OK — View/ViewGroup/Drawable.Callback/Activity + @hide resolve"
-    } else {
-        Write-Warn "verify(1/4) compile probe FAILED — the jar cannot resolve core public + hidden APIs:"
-        Get-Content $log -ErrorAction SilentlyContinue | Write-Host
-        $ok = $false
-    }
-
-    $entries = & $jarTool tf $jar
-
-    # (2) Conflict guard: the jar must NOT ship the ART runtime / repackaged libs that shadow the JDK
-    #     and the app's own dependencies (the issue-#100 cause; also guards the overlay filter).
-    $polluted = @($entries |
-        Where-Object { $_ -match '^(sun|jdk|libcore|com/google|com/android/okhttp|com/android/org|gov/nist|org/apache/(xml|xpath|xalan))/' } |
-        ForEach-Object { ($_ -split '/')[0..1] -join '/' } | Sort-Object -Unique)
-    if ($polluted.Count -gt 0) {
-        Write-Warn ("verify(2/4) conflict guard FAILED — jar ships JDK/dependency-shadowing namespaces: " + ($polluted -join ' '))
-        $ok = $false
-    } else {
-        Write-Note "verify(2/4) conflict guard OK — no JDK/dependency-shadowing namespaces"
-    }
-
-    # (3) Public-API floor: the merge overlays onto the SDK jar, so the result must never have FEWER
-    #     classes than the base SDK jar.
-    $outN  = @($entries | Select-String -Pattern '\.class$').Count
-    $baseN = @((& $jarTool tf $baseJar) | Select-String -Pattern '\.class$').Count
-    if ($outN -lt $baseN) {
-        Write-Warn "verify(3/4) public-API floor FAILED — jar has $outN classes but base SDK jar has $baseN"
-        $ok = $false
-    } else {
-        Write-Note "verify(3/4) public-API floor OK — $outN classes (>= $baseN in base SDK jar)"
-    }
-
-    # (4) Supertype closure: no android.*/dalvik.*/java.* class may be left with a dangling supertype
-    #     (the exact issue-#100 symptom, e.g. View losing Drawable.Callback).
-    if (Test-Closure $jar $work $javac) {
-        Write-Note "verify(4/4) supertype closure OK"
-    } else {
-        Write-Warn "verify(4/4) supertype closure FAILED — a public supertype is missing (issue #100 symptom)"
-        $ok = $false
-    }
-
-    if ($ok) { Write-Log "Verification OK: all 4 checks passed" } else { Write-Warn "Verification FAILED (see checks above)" }
-    return $ok
-}
-
-# Runs ClosureVerify against the packaged jar (gate 4). Returns $false only on a HARD failure (a
-# missing public supertype); a missing tool/ASM is reported and treated as a skip (returns $true) so
-# the gate never blocks a build just because the checker itself could not run.
-function Test-Closure {
-    param($jar, $work, $javac)
-    if (-not (Initialize-JavaTools $work)) { Write-Warn "closure check skipped (ASM lib or cli/*.java not found)"; return $true }
+    param($jar, $baseJar, $work)
+    if (-not (Initialize-JavaTools $work)) { Die "Java tools (ASM/Stubifier/ClosureVerify/BuildJar) unavailable — keep cli/*.java intact" }
     $sep = [IO.Path]::PathSeparator
-    & $script:ToolsJava -cp "$($script:ToolsOut)$sep$($script:ToolsCp)" ClosureVerify $jar
+    $vArgs = @('--base', $baseJar, '--jdk-cache', (Join-Path $CacheDir 'jdk'))
+    if ($OptDeepVerify)  { $vArgs += '--deep' }
+    if ($OptIncremental) { $vArgs += @('--index', "$jar.closure") }
+    & $script:ToolsJava -cp "$($script:ToolsOut)$sep$($script:ToolsCp)" Verify @vArgs $jar
     return ($LASTEXITCODE -eq 0)
 }
 
+# BuildJar writes <jar>.abi (format, options, whole-jar ABI digest, then one digest per class); the
+# installed copy lives next to the SDK's android.jar. When the first three lines match and the SDK
+# jar was not replaced since, the new jar compiles exactly like the installed one: leave it alone, so
+# its mtime does not make Gradle recompile every module.
 function Install-Jar {
     param($built, $platformDir, $jarTool)
     $target = Join-Path $platformDir 'android.jar'
     $backup = Join-Path $platformDir 'android.jar.orig'
+    $abi = "$built.abi"; $installedAbi = "$target.abi"
+    if ((Test-Path $abi) -and (Test-Path $installedAbi) -and (Test-Path $target) -and
+        (Get-Item $target).LastWriteTimeUtc -le (Get-Item $installedAbi).LastWriteTimeUtc -and
+        ((Get-Content $abi -TotalCount 3) -join "`n") -eq ((Get-Content $installedAbi -TotalCount 3) -join "`n")) {
+        Write-Log "ABI unchanged since the last install — left $target untouched (no downstream recompile)"
+        return
+    }
     if (-not (Test-Path $backup)) { Copy-Item $target $backup; Write-Log "Backed up original SDK jar -> $backup" }
     else { Write-Note "Backup already exists (kept): $backup" }
     Copy-Item $built $target -Force
+    if (Test-Path $abi) { Copy-Item $abi $installedAbi -Force } else { Remove-Item $installedAbi -Force -ErrorAction SilentlyContinue }
     Write-Log "Installed custom jar -> $target"
     Write-Log "Restore anytime with: hiddenjar.ps1 restore --api <level>"
 }
@@ -430,6 +502,7 @@ function Invoke-Restore {
     $backup = Join-Path $platformDir 'android.jar.orig'
     if (-not (Test-Path $backup)) { Die "no backup found at $backup" }
     Copy-Item $backup $target -Force
+    Remove-Item "$target.abi" -Force -ErrorAction SilentlyContinue
     Write-Log "Restored original SDK android.jar for API $OptApi"
 }
 
@@ -476,15 +549,37 @@ BUILD OPTIONS (same flags as the bash script):
   --all-bootclasspath  merge hidden-API namespaces (android.*, com.android.internal.*, dalvik.*)
                        from every \$BOOTCLASSPATH jar that has DEX (default; full coverage)
   --output FILE        output path (default: .\android-<api>-custom.jar)
-  --install            install into <sdk>\platforms\android-<api>*\android.jar (auto-backup .orig)
+  --install            install into <sdk>\platforms\android-<api>*\android.jar (auto-backup .orig);
+                       skipped when <output>.abi shows the API is unchanged since the last install
   --dex-tools DIR      path to an unpacked dex-tools distribution (default: auto-download + cache)
   --work-dir DIR       scratch dir (default: temp; kept on failure)
+  --jobs N             DEX conversions to run at once, behind the adb pulls, in one JVM (default:
+                       one per core, at most 4)
+  --no-cache           pull and convert every boot jar again instead of reusing the ones cached
+                       from an earlier build against the same device image (ro.build.fingerprint)
   --keep               keep the work dir even on success
   --keep-bodies        keep real dex2jar method bodies instead of stripping them to signature-only
                        stubs. Bodies let you browse decompiled sources, but Gradle lint / unit tests
                        (MockableJarTransform) then FAIL on the jar. Default: strip to stubs.
+  --api-only           stubs with only what code outside a class can see: drops private/synthetic
+                       members (lambda bodies, accessors) and anonymous/local classes. Smaller jar,
+                       faster downstream compiles. Not combinable with --keep-bodies.
   --keep-dangling      keep classes whose supertypes were filtered out of the overlay. Default:
                        prune them so the jar's supertype graph is closed like the stock android.jar.
+  --incremental        keep <output>.manifest next to the jar and, on the next build, copy every
+                       entry whose source jar is unchanged straight from the previous output. The
+                       closure check keeps <output>.closure and re-checks only changed classes.
+  --store              write the jar uncompressed (STORED): larger, but faster for javac/kotlinc to
+                       read. Fine for a jar that only lives in the local SDK.
+  --delta              also write <output>-delta.jar: only the overlay classes that are new or whose
+                       API differs from the SDK jar. Put it ahead of the stock android.jar with
+                       gradlew ... -PhiddenJarDelta=<file> instead of --install.
+  --split              also write <output>-split\: the same classes as one jar per source boot jar
+                       (framework.jar, framework-wifi.jar, ...) plus index.tsv (entry -> module),
+                       to compile a module against only the jars it needs.
+  --deep-verify        gate 4 also checks every type named by a member signature javac can see
+                       (fields, method parameters/returns/throws, generics), not just supertypes;
+                       missing annotation types are only reported, as javac only warns.
 "@ | Write-Host
 }
 
@@ -505,12 +600,21 @@ while ($i -lt $argv.Count) {
         '--output'           { $OptOutput = $argv[$i+1]; $i += 2; continue }
         '--dex-tools'        { $OptDexTools = $argv[$i+1]; $i += 2; continue }
         '--work-dir'         { $OptWorkDir = $argv[$i+1]; $i += 2; continue }
+        '--jobs'             { $n = 0; if (-not [int]::TryParse("$($argv[$i+1])", [ref]$n) -or $n -lt 1) { Die "--jobs needs a positive number" }
+                               $OptJobs = $n; $i += 2; continue }
         '--only-framework'   { $OptOnlyFramework = $true; $i += 1; continue }
         '--all-bootclasspath'{ $OptOnlyFramework = $false; $i += 1; continue }
         '--install'          { $OptInstall = $true; $i += 1; continue }
+        '--no-cache'         { $OptNoCache = $true; $i += 1; continue }
         '--keep'             { $OptKeep = $true; $i += 1; continue }
         '--keep-bodies'      { $OptKeepBodies = $true; $i += 1; continue }
         '--keep-dangling'    { $OptKeepDangling = $true; $i += 1; continue }
+        '--incremental'      { $OptIncremental = $true; $i += 1; continue }
+        '--store'            { $OptStore = $true; $i += 1; continue }
+        '--api-only'         { $OptApiOnly = $true; $i += 1; continue }
+        '--delta'            { $OptDelta = $true; $i += 1; continue }
+        '--split'            { $OptSplit = $true; $i += 1; continue }
+        '--deep-verify'      { $OptDeepVerify = $true; $i += 1; continue }
         '-h'                 { $Command = 'help'; $i += 1; continue }
         '--help'             { $Command = 'help'; $i += 1; continue }
         default {